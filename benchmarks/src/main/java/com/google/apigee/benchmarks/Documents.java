@@ -0,0 +1,95 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The documents the benchmarks run against: sample-data/order.xml as is, and the same order with
+ * its article lines repeated to reach a target size, so that the first and last lines, and the
+ * customer and payment elements, are where the xpaths expect them.
+ */
+final class Documents {
+  static final String TX_NS = "https://example.com/20190122/tx";
+  static final String E_NS = "https://example.com/20190122/entities";
+
+  private Documents() {}
+
+  /** Sizes accepted by {@link #get}: "order" for the sample itself, or a size in KB or MB. */
+  static String get(String size) throws IOException {
+    String order = order();
+    if (size.equals("order")) {
+      return order;
+    }
+    int bytes;
+    if (size.endsWith("MB")) {
+      bytes = Integer.parseInt(size.substring(0, size.length() - 2)) * 1024 * 1024;
+    } else if (size.endsWith("KB")) {
+      bytes = Integer.parseInt(size.substring(0, size.length() - 2)) * 1024;
+    } else {
+      throw new IllegalArgumentException("unsupported size: " + size);
+    }
+    return scale(order, bytes);
+  }
+
+  private static String order() throws IOException {
+    InputStream in = Documents.class.getResourceAsStream("/order.xml");
+    if (in == null) {
+      throw new IllegalStateException("order.xml is not on the classpath");
+    }
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = in.read(buffer)) > 0) {
+        out.write(buffer, 0, n);
+      }
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static String scale(String order, int targetBytes) {
+    int start = order.indexOf("<line>");
+    int end = order.indexOf("</line>") + "</line>".length();
+    String line = order.substring(start, end);
+    StringBuilder sb = new StringBuilder(targetBytes + order.length());
+    sb.append(order, 0, end);
+    while (sb.length() + order.length() - end < targetBytes) {
+      sb.append(line);
+    }
+    sb.append(order, end, order.length());
+    return sb.toString();
+  }
+
+  /** Xpaths over the order, each selecting one node. */
+  static final String[] XPATHS = {
+    "/tx:order/e:payment/e:creditcard/e:number/text()",
+    "/tx:order/e:payment/@type",
+    "/tx:order/e:customer/e:name/text()",
+    "/tx:order/e:customer/@customerNumber",
+    "/tx:order/e:customer/e:address/e:city/text()",
+    "/tx:order/e:articles/e:line[1]/e:product/@productNumber",
+    "/tx:order/e:articles/e:line[2]/e:price/text()",
+    "/tx:order/e:delivery/e:deliveryaddress/e:name/text()",
+    "/tx:order/e:payment/e:creditcard/e:expiryDate/text()",
+    "/tx:order/e:payment/e:creditcard/@issuer"
+  };
+}
@@ -0,0 +1,127 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.benchmarks;
+
+import com.google.apigee.util.ParseOptions;
+import com.google.apigee.util.XPathEvaluator;
+import com.google.apigee.util.XmlUtils;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import javax.xml.xpath.XPathConstants;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+/**
+ * Parsing followed by the xpaths over the order, with a deferred DOM, a fully expanded DOM, and
+ * the compact document model: the time for both, and the heap the document retains, in the
+ * retainedBytes counter of retainedHeap, measured after full collections.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class DomExpansionBenchmark {
+
+  @Param({"1MB", "5MB", "10MB", "25MB", "50MB"})
+  public String size;
+
+  @Param({"deferred", "full", "compact"})
+  public String model;
+
+  private String xml;
+  private XPathEvaluator xpe;
+
+  /** The heap in use after parsing, less the heap in use before, both after full collections. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Heap {
+    public long retainedBytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      retainedBytes = 0;
+    }
+  }
+
+  @Setup
+  public void setup() throws Exception {
+    xml = Documents.get(size);
+    xpe = new XPathEvaluator();
+    xpe.registerNamespace("tx", Documents.TX_NS);
+    xpe.registerNamespace("e", Documents.E_NS);
+  }
+
+  private Document load(Blackhole bh) throws Exception {
+    InputSource source = new InputSource(new StringReader(xml));
+    Document document;
+    if (model.equals("compact")) {
+      document = XmlUtils.parseCompact(source).newView();
+    } else {
+      document =
+          XmlUtils.parseXml(
+              source, ParseOptions.DEFAULT.withDeferNodeExpansion(model.equals("deferred")));
+    }
+    for (String xpath : Documents.XPATHS) {
+      bh.consume(xpe.evaluate(xpath, document, XPathConstants.NODESET));
+    }
+    return document;
+  }
+
+  @Benchmark
+  public Document parseAndEvaluate(Blackhole bh) throws Exception {
+    return load(bh);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @Warmup(iterations = 3)
+  @Measurement(iterations = 5)
+  public Document retainedHeap(Heap heap, Blackhole bh) throws Exception {
+    long before = usedHeap();
+    Document document = load(bh);
+    heap.retainedBytes += usedHeap() - before;
+    return document;
+  }
+
+  private static long usedHeap() {
+    Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 4; i++) {
+      System.gc();
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException exc1) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+}
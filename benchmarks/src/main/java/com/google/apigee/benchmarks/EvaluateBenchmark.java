@@ -0,0 +1,90 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.benchmarks;
+
+import com.google.apigee.util.XPathEvaluator;
+import com.google.apigee.util.XmlUtils;
+import java.util.concurrent.TimeUnit;
+import javax.xml.xpath.XPathConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+/**
+ * XPathEvaluator.evaluate against a parsed document, with prefixed names and with the
+ * equivalent local-name() tests, evalXPathToString, which also serializes the result, and
+ * XmlUtils.toString, which serializes the whole document.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluateBenchmark {
+
+  private static final String WITH_NAMESPACES =
+      "/tx:order/e:payment/e:creditcard/e:number/text()";
+  private static final String WITHOUT_NAMESPACES =
+      "/*[local-name()='order']/*[local-name()='payment']/*[local-name()='creditcard']"
+          + "/*[local-name()='number']/text()";
+  private static final String TO_STRING = "/tx:order/e:payment";
+
+  @Param({"order", "100KB", "1MB", "10MB"})
+  public String size;
+
+  private Document document;
+  private XPathEvaluator namespaced;
+  private XPathEvaluator plain;
+
+  @Setup
+  public void setup() throws Exception {
+    document = XmlUtils.parseXml(Documents.get(size));
+    namespaced = new XPathEvaluator();
+    namespaced.registerNamespace("tx", Documents.TX_NS);
+    namespaced.registerNamespace("e", Documents.E_NS);
+    plain = new XPathEvaluator();
+  }
+
+  @Benchmark
+  public Object evaluateWithNamespaces() throws Exception {
+    return namespaced.evaluate(WITH_NAMESPACES, document, XPathConstants.NODESET);
+  }
+
+  @Benchmark
+  public Object evaluateWithoutNamespaces() throws Exception {
+    return plain.evaluate(WITHOUT_NAMESPACES, document, XPathConstants.NODESET);
+  }
+
+  @Benchmark
+  public String evalXPathToString() throws Exception {
+    return namespaced.evalXPathToString(TO_STRING, document);
+  }
+
+  @Benchmark
+  public String documentToString() throws Exception {
+    return XmlUtils.toString(document, true);
+  }
+}
@@ -0,0 +1,107 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.benchmarks;
+
+import com.apigee.flow.execution.ExecutionResult;
+import com.apigee.flow.message.MessageContext;
+import com.google.apigee.callouts.ExtractXpath;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ExtractXpath.execute end to end, with the document in a context variable, and a number of
+ * xpath: properties drawn in turn from {@link Documents#XPATHS}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecuteBenchmark {
+
+  @Param({"order", "100KB", "1MB", "10MB"})
+  public String size;
+
+  @Param({"1", "10", "30"})
+  public int xpaths;
+
+  private ExtractXpath callout;
+  private MessageContext msgCtxt;
+
+  @Setup
+  public void setup() throws Exception {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("source", "message.content");
+    properties.put("xmlns:tx", Documents.TX_NS);
+    properties.put("xmlns:e", Documents.E_NS);
+    for (int i = 0; i < xpaths; i++) {
+      properties.put("xpath:var" + i, Documents.XPATHS[i % Documents.XPATHS.length]);
+    }
+    callout = new ExtractXpath(properties);
+    msgCtxt = stubMessageContext();
+    msgCtxt.setVariable("message.content", Documents.get(size));
+    if (callout.execute(msgCtxt, null) != ExecutionResult.SUCCESS
+        || msgCtxt.getVariable("xpath_error") != null) {
+      throw new IllegalStateException("extraction failed: " + msgCtxt.getVariable("xpath_error"));
+    }
+  }
+
+  // a MessageContext that keeps variables in a map, and supports nothing else
+  static MessageContext stubMessageContext() {
+    final Map<String, Object> variables = new HashMap<String, Object>();
+    return (MessageContext)
+        Proxy.newProxyInstance(
+            MessageContext.class.getClassLoader(),
+            new Class<?>[] {MessageContext.class},
+            new InvocationHandler() {
+              public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("getVariable")) {
+                  return variables.get(args[0]);
+                }
+                if (name.equals("setVariable")) {
+                  variables.put((String) args[0], args[1]);
+                  return true;
+                }
+                if (name.equals("removeVariable")) {
+                  return variables.remove(args[0]) != null;
+                }
+                throw new UnsupportedOperationException(name);
+              }
+            });
+  }
+
+  @Benchmark
+  public ExecutionResult execute() {
+    return callout.execute(msgCtxt, null);
+  }
+}
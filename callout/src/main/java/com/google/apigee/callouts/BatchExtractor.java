@@ -0,0 +1,153 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import com.google.apigee.util.RecordReader;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import org.w3c.dom.Document;
+
+/**
+ * Applies the xmlns: and xpath: properties of an ExtractXpath policy to each record of a large
+ * XML file, like the order elements of a daily batch, without reading the whole file into
+ * memory, and writes one line of results per record, in the order of the records.
+ *
+ * <p>The records are split out of the input by {@link RecordReader}, along the path given in
+ * the record-path property, and each becomes a document of its own, so an xpath like
+ * /order/id/text() selects the id of the order. The xpath-type:, xpath-mode: and
+ * xpath-delimiter: properties apply as they do to the policy. An xpath that does not select
+ * what its mode requires leaves its value empty, as it leaves the variable unset.
+ *
+ * <p>The records are evaluated on a work-stealing pool of parallelism threads (default: one per
+ * processor), with at most max-in-flight of them (default: four per thread) read and not yet
+ * written at any time. The format property selects jsonl (the default), one JSON object per
+ * line, or csv, with a header line of the variable names.
+ */
+public final class BatchExtractor extends XpathCalloutBase {
+
+  private final ExtractionPlan plan;
+  private final String recordPath;
+  private final boolean csv;
+  private final int parallelism;
+  private final int maxInFlight;
+
+  public BatchExtractor(Map properties) {
+    super(properties);
+    this.plan = new ExtractionPlan(properties);
+    if (!plan.isStatic()) {
+      throw new IllegalStateException("xpaths and namespaces must not refer to variables");
+    }
+    if (plan.getXpaths().size() < 1) {
+      throw new IllegalStateException("no xpaths provided");
+    }
+    String value = (String) properties.get("record-path");
+    if (value == null || value.trim().equals("")) {
+      throw new IllegalStateException("record-path resolves to an empty string");
+    }
+    this.recordPath = value.trim();
+    this.csv = getFormat().equals("csv");
+    this.parallelism =
+        Math.max(1, getIntProperty("parallelism", Runtime.getRuntime().availableProcessors()));
+    this.maxInFlight = Math.max(1, getIntProperty("max-in-flight", 4 * parallelism));
+  }
+
+  private String getFormat() {
+    String value = (String) this.properties.get("format");
+    if (value == null || value.trim().equals("")) return "jsonl";
+    value = value.trim().toLowerCase();
+    if (!value.equals("jsonl") && !value.equals("csv")) {
+      throw new IllegalStateException("unsupported format: " + value);
+    }
+    return value;
+  }
+
+  /** Reads the records from the stream, which the caller must close, and returns their number. */
+  public long extract(InputStream in, Writer out) throws Exception {
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    RecordReader reader =
+        new RecordReader(in, recordPath, plan.getStaticEvaluator().getNamespaces());
+    OrderedWriter writer = new OrderedWriter(pool, maxInFlight, out);
+    long records = 0;
+    try {
+      if (csv) {
+        out.write(header());
+      }
+      Document record;
+      while ((record = reader.next()) != null) {
+        final Document document = record;
+        writer.submit(
+            new Callable<String>() {
+              public String call() throws Exception {
+                return format(plan.values(document));
+              }
+            });
+        records++;
+      }
+      writer.finish();
+      out.flush();
+      return records;
+    } finally {
+      reader.close();
+      pool.shutdownNow();
+    }
+  }
+
+  private String header() {
+    StringBuilder sb = new StringBuilder();
+    for (ExtractionPlan.Binding binding : plan.getXpaths()) {
+      if (sb.length() > 0) sb.append(',');
+      ResultFormat.appendCsv(sb, binding.name);
+    }
+    return sb.append('\n').toString();
+  }
+
+  private String format(Object[] values) {
+    List<ExtractionPlan.Binding> bindings = plan.getXpaths();
+    StringBuilder sb = new StringBuilder();
+    if (csv) {
+      for (int i = 0; i < values.length; i++) {
+        if (i > 0) sb.append(',');
+        Object value = values[i];
+        if (value instanceof List) {
+          StringBuilder joined = new StringBuilder();
+          for (Object item : (List) value) {
+            if (joined.length() > 0) joined.append(bindings.get(i).delimiter);
+            joined.append(item);
+          }
+          ResultFormat.appendCsv(sb, joined.toString());
+        } else if (value instanceof Double) {
+          sb.append(ResultFormat.number((Double) value));
+        } else if (value != null) {
+          ResultFormat.appendCsv(sb, value.toString());
+        }
+      }
+    } else {
+      sb.append('{');
+      for (int i = 0; i < values.length; i++) {
+        if (i > 0) sb.append(',');
+        ResultFormat.appendJson(sb, bindings.get(i).name);
+        sb.append(':');
+        ResultFormat.appendJsonValue(sb, values[i]);
+      }
+      sb.append('}');
+    }
+    return sb.append('\n').toString();
+  }
+}
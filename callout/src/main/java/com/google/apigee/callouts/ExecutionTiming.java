@@ -0,0 +1,193 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import com.apigee.flow.message.MessageContext;
+import com.google.apigee.util.CompactDocument;
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+/**
+ * The timings and sizes of one execution of ExtractXpath, when the timing property is set. A
+ * measure that does not apply to the execution, such as the parse time when the xpaths are
+ * evaluated while streaming, stays at -1 and is not published.
+ */
+final class ExecutionTiming {
+  long parseNanos = -1;
+  long evalNanos = -1;
+  long documentBytes = -1;
+  long documentNodes = -1;
+  private final List<String> variables = new ArrayList<String>();
+  private final List<Long> variableNanos = new ArrayList<Long>();
+  private Counter counter;
+
+  interface Counter {
+    long getCount();
+  }
+
+  /** Wraps the stream of the source, to count the bytes that are read from it. */
+  InputSource count(InputSource source) {
+    if (source.getByteStream() != null) {
+      CountingInputStream in = new CountingInputStream(source.getByteStream());
+      source.setByteStream(in);
+      counter = in;
+    } else if (source.getCharacterStream() != null) {
+      CountingReader reader = new CountingReader(source.getCharacterStream());
+      source.setCharacterStream(reader);
+      counter = reader;
+    }
+    return source;
+  }
+
+  void parsed(long startNanos) {
+    parseNanos = System.nanoTime() - startNanos;
+    documentBytes = (counter != null) ? counter.getCount() : -1;
+  }
+
+  // the xpaths were evaluated while reading, so there is no separate parse
+  void streamed(long startNanos) {
+    evalNanos = System.nanoTime() - startNanos;
+    documentBytes = (counter != null) ? counter.getCount() : -1;
+  }
+
+  void evaluated(String variable, long nanos) {
+    variables.add(variable);
+    variableNanos.add(nanos);
+  }
+
+  void countNodes(Document document) {
+    CompactDocument compactDocument = CompactDocument.of(document);
+    documentNodes =
+        (compactDocument != null) ? compactDocument.getNodeCount() : countNodes((Node) document);
+  }
+
+  private static long countNodes(Node root) {
+    long n = 0;
+    Node node = root;
+    while (node != null) {
+      n++;
+      NamedNodeMap attributes = node.getAttributes();
+      if (attributes != null) {
+        n += attributes.getLength();
+      }
+      Node next = node.getFirstChild();
+      while (next == null && node != root) {
+        next = node.getNextSibling();
+        if (next == null) {
+          node = node.getParentNode();
+        }
+      }
+      node = next;
+    }
+    return n;
+  }
+
+  void publish(MessageContext msgCtxt) {
+    publish(msgCtxt, "timing_parse_ns", parseNanos);
+    publish(msgCtxt, "timing_eval_ns", evalNanos);
+    publish(msgCtxt, "document_bytes", documentBytes);
+    publish(msgCtxt, "document_nodes", documentNodes);
+    for (int i = 0; i < variables.size(); i++) {
+      msgCtxt.setVariable(
+          XpathCalloutBase.varName("timing_eval_ns." + variables.get(i)), variableNanos.get(i));
+    }
+  }
+
+  private static void publish(MessageContext msgCtxt, String name, long value) {
+    if (value >= 0) {
+      msgCtxt.setVariable(XpathCalloutBase.varName(name), value);
+    }
+  }
+
+  private static final class CountingInputStream extends FilterInputStream implements Counter {
+    private long count;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = in.read();
+      if (b >= 0) count++;
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = in.read(b, off, len);
+      if (n > 0) count += n;
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = in.skip(n);
+      count += skipped;
+      return skipped;
+    }
+
+    public long getCount() {
+      return count;
+    }
+  }
+
+  // counts the bytes the characters take in UTF-8
+  private static final class CountingReader extends FilterReader implements Counter {
+    private long count;
+
+    CountingReader(Reader in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int c = in.read();
+      if (c >= 0) count += utf8Length((char) c);
+      return c;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+      int n = in.read(cbuf, off, len);
+      for (int i = 0; i < n; i++) {
+        count += utf8Length(cbuf[off + i]);
+      }
+      return n;
+    }
+
+    private static int utf8Length(char c) {
+      if (c < 0x80) return 1;
+      if (c < 0x800) return 2;
+      // each half of a surrogate pair counts for half of the four bytes of the pair
+      if (Character.isSurrogate(c)) return 2;
+      return 3;
+    }
+
+    public long getCount() {
+      return count;
+    }
+  }
+}
@@ -19,99 +19,426 @@ import com.apigee.flow.execution.ExecutionContext;
 import com.apigee.flow.execution.ExecutionResult;
 import com.apigee.flow.execution.spi.Execution;
 import com.apigee.flow.message.MessageContext;
+import com.google.apigee.util.CompactDocument;
+import com.google.apigee.util.DocumentProjection;
+import com.google.apigee.util.ElementIndex;
+import com.google.apigee.util.ParseLimits;
+import com.google.apigee.util.ParseOptions;
+import com.google.apigee.util.StreamingExtractor;
 import com.google.apigee.util.XPathEvaluator;
-import java.util.HashMap;
+import com.google.apigee.util.XmlUtils;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import javax.xml.xpath.XPathConstants;
-import org.w3c.dom.Attr;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
 
 public class ExtractXpath extends XpathCalloutBase implements Execution {
 
+  private final ExtractionPlan plan;
+  private final boolean streaming;
+  private final boolean projecting;
+  private final boolean compact;
+  private final boolean indexing;
+  private final boolean parallel;
+  private final int parallelMinXpaths;
+  private final int parallelMinNodes;
+  private final ParseLimits limits;
+  private final ParseOptions baseParseOptions;
+  private final ParseOptions staticParseOptions; // when projecting, and nothing is templated
+  private final StreamingExtractor staticExtractor; // when streaming, and nothing is templated
+  private final ExtractionMetrics metrics; // when timing
+  private final boolean debug;
+
   public ExtractXpath(Map properties) {
     super(properties);
+    this.plan = new ExtractionPlan(properties);
+    this.streaming = getEngine().equals("stream");
+    this.projecting = getBooleanProperty("projection");
+    this.compact = getBooleanProperty("compact-dom");
+    this.indexing = getBooleanProperty("element-index");
+    this.parallel = getBooleanProperty("parallel");
+    this.parallelMinXpaths = getIntProperty("parallel-min-xpaths", 8);
+    this.parallelMinNodes = getIntProperty("parallel-min-nodes", 10000);
+    this.limits =
+        ParseLimits.NONE
+            .withMaxBytes(getIntProperty("max-bytes", 0))
+            .withMaxDepth(getIntProperty("max-depth", 0))
+            .withMaxElements(getIntProperty("max-elements", 0))
+            .withMaxAttributes(getIntProperty("max-attributes", 0))
+            .withMaxTextLength(getIntProperty("max-text-length", 0));
+    this.baseParseOptions = getBaseParseOptions().withLimits(limits);
+    this.staticParseOptions =
+        (projecting && plan.isStatic())
+            ? parseOptions(resolveXpaths(null), plan.getStaticEvaluator())
+            : null;
+    this.staticExtractor =
+        (streaming && plan.isStatic())
+            ? StreamingExtractor.compile(
+                resolveXpaths(null), plan.getStaticEvaluator().getNamespaces())
+            : null;
+    this.metrics =
+        getBooleanProperty("timing") ? ExtractionMetrics.forPolicy(getTimingName()) : null;
+    this.debug = getDebug();
+    if (getBooleanProperty("warmup")) {
+      warmUp();
+    }
+  }
+
+  private static final int WARMUP_CYCLES = 200;
+
+  /**
+   * Parses a small document and evaluates the xpaths that do not refer to variables against it,
+   * the way execute() would, so that classes are loaded and the JIT has compiled the hot paths
+   * before the first request. Errors are ignored; the document is unlikely to match anyway.
+   */
+  private void warmUp() {
+    XPathEvaluator xpe = plan.getStaticEvaluator();
+    if (xpe == null) {
+      xpe = new XPathEvaluator();
+    }
+    String xml = sampleDocument(xpe.getNamespaces());
+    List<String> xpaths = new ArrayList<String>();
+    for (ExtractionPlan.Binding binding : plan.getXpaths()) {
+      if (!binding.templated) xpaths.add(binding.spec);
+    }
+    ParseOptions options = (staticParseOptions != null) ? staticParseOptions : baseParseOptions;
+    for (int i = 0; i < WARMUP_CYCLES; i++) {
+      try {
+        if (streaming) {
+          StreamingExtractor extractor = StreamingExtractor.compile(xpaths, xpe.getNamespaces());
+          if (extractor != null) {
+            extractor.extract(new InputSource(new StringReader(xml)), limits);
+          }
+        }
+        Document document =
+            (compact || parallel)
+                ? XmlUtils.parseCompact(new InputSource(new StringReader(xml)), limits).newView()
+                : XmlUtils.parseXml(new InputSource(new StringReader(xml)), options);
+        if (indexing) {
+          ElementIndex.enable(document);
+        }
+        for (ExtractionPlan.Binding binding : plan.getXpaths()) {
+          if (!binding.templated) {
+            evaluate(xpe, binding, document, null, 0);
+          }
+        }
+      } catch (Exception exc1) {
+        return;
+      }
+    }
+  }
+
+  // A root element that declares each namespace, with a few children in each.
+  private static String sampleDocument(Map<String, String> namespaces) {
+    StringBuilder sb = new StringBuilder("<root");
+    for (Map.Entry<String, String> entry : namespaces.entrySet()) {
+      sb.append(" xmlns:").append(entry.getKey()).append("='");
+      sb.append(entry.getValue().replace("&", "&amp;").replace("'", "&apos;").replace("<", "&lt;"));
+      sb.append('\'');
+    }
+    sb.append("><item id='1'>one<child>two</child></item><item id='2'>three</item>");
+    for (String prefix : namespaces.keySet()) {
+      sb.append('<').append(prefix).append(":item ").append(prefix).append(":id='3'>four<");
+      sb.append(prefix).append(":child>five</").append(prefix).append(":child></");
+      sb.append(prefix).append(":item>");
+    }
+    return sb.append("</root>").toString();
+  }
+
+  private String getTimingName() {
+    String value = (String) this.properties.get("timing-name");
+    if (value == null || value.trim().equals("")) return "ExtractXpath";
+    return value.trim();
+  }
+
+  private ParseOptions getBaseParseOptions() {
+    String value = (String) this.properties.get("deferred-dom");
+    if (value == null || value.trim().equals("")) return ParseOptions.DEFAULT;
+    return ParseOptions.DEFAULT.withDeferNodeExpansion(value.trim().toLowerCase().equals("true"));
+  }
+
+  private String getEngine() {
+    String value = (String) this.properties.get("engine");
+    if (value == null || value.trim().equals("")) return "dom";
+    value = value.trim().toLowerCase();
+    if (!value.equals("dom") && !value.equals("stream")) {
+      throw new IllegalStateException("unsupported engine: " + value);
+    }
+    return value;
   }
 
   private XPathEvaluator getXpe(MessageContext msgCtxt) throws Exception {
-    XPathEvaluator xpe = new XPathEvaluator();
+    XPathEvaluator xpe = plan.getStaticEvaluator();
+    if (xpe != null) {
+      return xpe;
+    }
+    xpe = new XPathEvaluator();
     // register namespaces
-    for (Object prop : properties.keySet()) {
-      String key = (String) prop;
-      if (key.startsWith("xmlns:")) {
-        String value = resolvePropertyValue((String) properties.get(key), msgCtxt);
-        String[] parts = key.split(":");
-        xpe.registerNamespace(parts[1], value);
-      }
+    for (ExtractionPlan.Binding binding : plan.getNamespaces()) {
+      xpe.registerNamespace(binding.name, resolve(binding, msgCtxt));
     }
     return xpe;
   }
 
-  private Map<String, String> getVarXpathPairs(MessageContext msgCtxt) throws Exception {
-    Map<String, String> xpaths = new HashMap<String, String>();
-    for (Object prop : properties.keySet()) {
-      String key = (String) prop;
-      if (key.startsWith("xpath:")) {
-        String value = resolvePropertyValue((String) properties.get(key), msgCtxt);
+  private String resolve(ExtractionPlan.Binding binding, MessageContext msgCtxt) {
+    return binding.template.resolve(msgCtxt);
+  }
+
+  private void setVariable(MessageContext msgCtxt, String name, Object value) {
+    if (value != null) {
+      msgCtxt.setVariable(name, value);
+    }
+  }
+
+  // Shared by all policies; created on first use. The workers are daemon threads.
+  private static final class ParallelPool {
+    static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+  }
+
+  private boolean runsInParallel(CompactDocument document) {
+    if (!parallel
+        || plan.getXpaths().size() < Math.max(2, parallelMinXpaths)
+        || document.getNodeCount() < parallelMinNodes) {
+      return false;
+    }
+    // a templated xpath may refer to a variable set by an earlier one, so keep those in order
+    for (ExtractionPlan.Binding binding : plan.getXpaths()) {
+      if (binding.templated) return false;
+    }
+    return true;
+  }
+
+  // Returns the extracted value, the IllegalStateException from validate(), or an
+  // ExecutionException wrapping the exception that evaluating the xpath threw.
+  // When nanos is not null, the time taken is stored at nanos[i].
+  private Object evaluate(
+      XPathEvaluator xpe,
+      ExtractionPlan.Binding binding,
+      Document document,
+      long[] nanos,
+      int i) {
+    long start = (nanos != null) ? System.nanoTime() : 0L;
+    Object evaluated;
+    try {
+      evaluated = xpe.evaluate(binding.spec, document, binding.type.returnType);
+    } catch (Exception exc1) {
+      return new ExecutionException(exc1);
+    } finally {
+      if (nanos != null) {
+        nanos[i] = System.nanoTime() - start;
+      }
+    }
+    try {
+      return binding.value(evaluated);
+    } catch (IllegalStateException exc1) {
+      return exc1;
+    }
+  }
+
+  /**
+   * Evaluates the xpaths on the pool, each worker with its own view of the document, and then
+   * sets the variables in the same order, and with the same handling of errors, as the
+   * sequential loop in execute().
+   */
+  private void extractInParallel(
+      final CompactDocument document,
+      Document view,
+      final XPathEvaluator xpe,
+      MessageContext msgCtxt,
+      ExecutionTiming timing)
+      throws Exception {
+    final List<ExtractionPlan.Binding> bindings = plan.getXpaths();
+    final Object[] outcomes = new Object[bindings.size()];
+    final long[] nanos = (timing != null) ? new long[outcomes.length] : null;
+    int chunks = Math.min(ParallelPool.pool.getParallelism() + 1, bindings.size());
+    List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(chunks);
+    for (int c = 1; c < chunks; c++) {
+      final int from = c * outcomes.length / chunks;
+      final int to = (c + 1) * outcomes.length / chunks;
+      tasks.add(
+          ParallelPool.pool.submit(
+              new Runnable() {
+                public void run() {
+                  Document workerView = document.newView();
+                  for (int i = from; i < to; i++) {
+                    outcomes[i] = evaluate(xpe, bindings.get(i), workerView, nanos, i);
+                  }
+                }
+              }));
+    }
+    // the calling thread takes the first chunk
+    for (int i = 0; i < outcomes.length / chunks; i++) {
+      outcomes[i] = evaluate(xpe, bindings.get(i), view, nanos, i);
+    }
+    for (ForkJoinTask<?> task : tasks) {
+      task.join();
+    }
+    if (timing != null) {
+      for (int i = 0; i < nanos.length; i++) {
+        timing.evaluated(bindings.get(i).name, nanos[i]);
+      }
+    }
 
-        String[] parts = key.split(":");
-        xpaths.put(parts[1], value);
+    for (int i = 0; i < outcomes.length; i++) {
+      Object outcome = outcomes[i];
+      if (outcome instanceof IllegalStateException) {
+        setExceptionVariables((IllegalStateException) outcome, msgCtxt);
+      } else if (outcome instanceof ExecutionException) {
+        throw (Exception) ((ExecutionException) outcome).getCause();
+      } else {
+        setVariable(msgCtxt, bindings.get(i).name, outcome);
       }
     }
+  }
+
+  private List<String> resolveXpaths(MessageContext msgCtxt) {
+    List<String> xpaths = new ArrayList<String>(plan.getXpaths().size());
+    for (ExtractionPlan.Binding binding : plan.getXpaths()) {
+      xpaths.add(resolve(binding, msgCtxt));
+    }
     return xpaths;
   }
 
-  private void validate(NodeList nodes) throws IllegalStateException {
-    int length = nodes.getLength();
-    if (length != 1) {
-      throw new IllegalStateException(
-          "xpath does not resolve to one node. (length=" + length + ")");
+  private ParseOptions getParseOptions(MessageContext msgCtxt, XPathEvaluator xpe) {
+    if (!projecting) {
+      return baseParseOptions;
+    }
+    if (staticParseOptions != null) {
+      return staticParseOptions;
+    }
+    return parseOptions(resolveXpaths(msgCtxt), xpe);
+  }
+
+  private ParseOptions parseOptions(List<String> xpaths, XPathEvaluator xpe) {
+    DocumentProjection projection = DocumentProjection.compile(xpaths, xpe.getNamespaces());
+    return (projection == null) ? baseParseOptions : baseParseOptions.withProjection(projection);
+  }
+
+  // Returns null if the xpaths or their modes need the DOM.
+  private StreamingExtractor getStreamingExtractor(MessageContext msgCtxt, XPathEvaluator xpe) {
+    List<ExtractionPlan.Binding> bindings = plan.getXpaths();
+    if (bindings.isEmpty()) {
+      return null;
+    }
+    for (ExtractionPlan.Binding binding : bindings) {
+      // the streaming extractor keeps only the text of the first node, and the count
+      if (binding.mode == ExtractionPlan.Mode.ALL
+          || binding.mode == ExtractionPlan.Mode.JOIN
+          || binding.type == ExtractionPlan.Type.NUMBER) {
+        return null;
+      }
     }
+    return plan.isStatic()
+        ? staticExtractor
+        : StreamingExtractor.compile(resolveXpaths(msgCtxt), xpe.getNamespaces());
   }
 
-  private String extract(NodeList nodes) {
-    Node currentNode = nodes.item(0);
-    short nodeType = currentNode.getNodeType();
-    switch (nodeType) {
-      case Node.ATTRIBUTE_NODE:
-        return ((Attr) currentNode).getNodeValue();
-      case Node.ELEMENT_NODE:
-        return ((Element) currentNode).getTextContent();
-      case Node.TEXT_NODE:
-        return currentNode.getNodeValue();
+  // Returns false if the document needs the DOM.
+  private boolean extractStreaming(
+      StreamingExtractor extractor,
+      InputSource source,
+      MessageContext msgCtxt,
+      ExecutionTiming timing) {
+    List<ExtractionPlan.Binding> bindings = plan.getXpaths();
+    long start = 0L;
+    if (timing != null) {
+      source = timing.count(source);
+      start = System.nanoTime();
+    }
+    StreamingExtractor.Result[] results = extractor.extract(source, limits);
+    if (results == null) {
+      return false;
+    }
+    if (timing != null) {
+      timing.streamed(start);
     }
-    return "";
+    for (int i = 0; i < results.length; i++) {
+      ExtractionPlan.Binding binding = bindings.get(i);
+      try {
+        if (binding.type == ExtractionPlan.Type.BOOLEAN) {
+          msgCtxt.setVariable(binding.name, results[i].getCount() > 0);
+        } else if (binding.type == ExtractionPlan.Type.STRING) {
+          String value = results[i].getString();
+          msgCtxt.setVariable(binding.name, (value == null) ? "" : value);
+        } else if (binding.mode == ExtractionPlan.Mode.COUNT) {
+          msgCtxt.setVariable(binding.name, results[i].getCount());
+        } else {
+          if (binding.type == ExtractionPlan.Type.NODESET
+              && binding.mode == ExtractionPlan.Mode.ONE) {
+            ExtractionPlan.validate(results[i].getCount());
+          }
+          setVariable(msgCtxt, binding.name, results[i].getValue());
+        }
+      } catch (IllegalStateException exc1) {
+        setExceptionVariables(exc1, msgCtxt);
+      }
+    }
+    return true;
   }
 
   public ExecutionResult execute(final MessageContext msgCtxt, final ExecutionContext execContext) {
+    ExecutionTiming timing = (metrics != null) ? new ExecutionTiming() : null;
+    Document document = null;
     try {
-      // 0. get the source document
-      Document document = getDocument(msgCtxt);
-
-      // 1. get XPath evaluator
+      // 0. get XPath evaluator
       XPathEvaluator xpe = getXpe(msgCtxt);
 
-      // 2. get all XPaths
-      Map<String, String> varXpathPairs = getVarXpathPairs(msgCtxt);
+      // when streaming gives up, the document is parsed from the start of the same source
+      RewindableSource rewindable = null;
+      StreamingExtractor extractor = streaming ? getStreamingExtractor(msgCtxt, xpe) : null;
+      if (extractor != null) {
+        rewindable = new RewindableSource(getSource(msgCtxt));
+        if (extractStreaming(extractor, rewindable.open(), msgCtxt, timing)) {
+          return ExecutionResult.SUCCESS;
+        }
+      }
 
-      if (varXpathPairs.entrySet().size() < 1) {
+      // 1. get the source document
+      InputSource source = (rewindable != null) ? rewindable.open() : getSource(msgCtxt);
+      CompactDocument compactDocument = null;
+      if (compact || parallel) {
+        compactDocument = parseCompactDocument(source, limits, timing);
+        document = compactDocument.newView();
+      } else {
+        document = parseDocument(source, getParseOptions(msgCtxt, xpe), timing);
+      }
+      if (indexing) {
+        ElementIndex.enable(document);
+      }
+
+      if (plan.getXpaths().size() < 1) {
         throw new IllegalStateException("no xpaths provided");
       }
 
-      // 3. iterate through each xpath, evaluating and setting var
-      for (Map.Entry<String, String> entry : varXpathPairs.entrySet()) {
-        String variableName = entry.getKey();
-        String xpath = entry.getValue();
-        NodeList nodes = (NodeList) xpe.evaluate(xpath, document, XPathConstants.NODESET);
-        try {
-          validate(nodes);
-          msgCtxt.setVariable(variableName, extract(nodes));
-        } catch (IllegalStateException exc1) {
-          setExceptionVariables(exc1, msgCtxt);
+      long evalStart = (timing != null) ? System.nanoTime() : 0L;
+      if (compactDocument != null && runsInParallel(compactDocument)) {
+        extractInParallel(compactDocument, document, xpe, msgCtxt, timing);
+      } else {
+        // 2. iterate through each xpath, evaluating and setting var
+        for (ExtractionPlan.Binding binding : plan.getXpaths()) {
+          String variableName = binding.name;
+          String xpath = resolve(binding, msgCtxt);
+          long start = (timing != null) ? System.nanoTime() : 0L;
+          Object evaluated = xpe.evaluate(xpath, document, binding.type.returnType);
+          if (timing != null) {
+            timing.evaluated(variableName, System.nanoTime() - start);
+          }
+          try {
+            setVariable(msgCtxt, variableName, binding.value(evaluated));
+          } catch (IllegalStateException exc1) {
+            setExceptionVariables(exc1, msgCtxt);
+          }
         }
       }
+      if (timing != null) {
+        timing.evalNanos = System.nanoTime() - evalStart;
+        timing.countNodes(document);
+      }
 
       return ExecutionResult.SUCCESS;
     } catch (javax.xml.xpath.XPathExpressionException texc1) {
@@ -121,12 +448,22 @@ public class ExtractXpath extends XpathCalloutBase implements Execution {
       setExceptionVariables(exc1, msgCtxt);
       return ExecutionResult.ABORT;
     } catch (Exception e) {
-      if (getDebug()) {
-        System.out.println(getStackTrace(e));
-      }
       setExceptionVariables(e, msgCtxt);
-      msgCtxt.setVariable(varName("stacktrace"), getStackTrace(e));
+      // formatting the trace costs more than the rest of a failed execution
+      if (debug) {
+        String stackTrace = getStackTrace(e);
+        System.out.println(stackTrace);
+        msgCtxt.setVariable(varName("stacktrace"), stackTrace);
+      }
       return ExecutionResult.ABORT;
+    } finally {
+      if (indexing && document != null) {
+        ElementIndex.disable(document);
+      }
+      if (timing != null) {
+        timing.publish(msgCtxt);
+        metrics.record(timing);
+      }
     }
   }
 }
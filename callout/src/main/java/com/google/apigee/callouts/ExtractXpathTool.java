@@ -0,0 +1,242 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import com.google.apigee.util.ByteBufferInputStream;
+import com.google.apigee.util.XmlUtils;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+/**
+ * Runs the xmlns: and xpath: properties of an ExtractXpath policy over XML files offline, and
+ * writes one JSON object per file, with the path of the file and the value of each variable,
+ * followed by the throughput on standard error:
+ *
+ * <pre>
+ * java -cp apigee-xpath.jar:message-flow.jar com.google.apigee.callouts.ExtractXpathTool \
+ *     [-v NAME=VALUE]... [-o OUTPUT] [-threads N] POLICY.xml FILE_OR_DIRECTORY...
+ * </pre>
+ *
+ * <p>References to context variables in the properties, like {xmlns_tx}, are resolved with the
+ * -v options; a variable that is not given resolves to the empty string, as in the policy.
+ * Directories are read recursively. Each file is memory-mapped and parsed from the mapping, and
+ * the files are evaluated in parallel, while the results are written in the order of the files.
+ * A file that cannot be read or parsed, or whose xpath cannot be evaluated, gets an "error"
+ * member instead of the values.
+ */
+public final class ExtractXpathTool {
+  private static final String USAGE =
+      "usage: ExtractXpathTool [-v NAME=VALUE]... [-o OUTPUT] [-threads N]"
+          + " POLICY.xml FILE_OR_DIRECTORY...";
+
+  private final ExtractionPlan plan;
+  private final int threads;
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+
+  ExtractXpathTool(Map<String, String> properties, int threads) {
+    this.plan = new ExtractionPlan(properties);
+    if (!plan.isStatic()) {
+      throw new IllegalStateException("xpaths and namespaces must not refer to variables");
+    }
+    if (plan.getXpaths().size() < 1) {
+      throw new IllegalStateException("no xpaths provided");
+    }
+    this.threads = threads;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int status = run(args, System.out, System.err);
+    if (status != 0) {
+      System.exit(status);
+    }
+  }
+
+  /** Runs the tool as main() does, and returns the exit status. */
+  static int run(String[] args, PrintStream stdout, PrintStream stderr) throws Exception {
+    Map<String, String> variables = new HashMap<String, String>();
+    String output = null;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int i = 0;
+    try {
+      for (; i < args.length && args[i].startsWith("-"); i += 2) {
+        String value = args[i + 1];
+        if (args[i].equals("-v") && value.indexOf('=') > 0) {
+          int eq = value.indexOf('=');
+          variables.put(value.substring(0, eq), value.substring(eq + 1));
+        } else if (args[i].equals("-o")) {
+          output = value;
+        } else if (args[i].equals("-threads") && Integer.parseInt(value) > 0) {
+          threads = Integer.parseInt(value);
+        } else {
+          throw new IllegalArgumentException(args[i]);
+        }
+      }
+    } catch (RuntimeException exc1) {
+      stderr.println(USAGE);
+      return 2;
+    }
+    if (args.length - i < 2) {
+      stderr.println(USAGE);
+      return 2;
+    }
+    ExtractXpathTool tool =
+        new ExtractXpathTool(readPolicy(Paths.get(args[i]), variables), threads);
+    List<Path> files = new ArrayList<Path>();
+    for (int a = i + 1; a < args.length; a++) {
+      files.addAll(listFiles(Paths.get(args[a])));
+    }
+
+    long start = System.nanoTime();
+    Writer out =
+        new BufferedWriter(
+            new OutputStreamWriter(
+                (output == null) ? stdout : Files.newOutputStream(Paths.get(output)),
+                StandardCharsets.UTF_8));
+    try {
+      tool.extract(files, out);
+    } finally {
+      if (output == null) {
+        out.flush();
+      } else {
+        out.close();
+      }
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    double megabytes = tool.bytes.get() / (1024.0 * 1024.0);
+    stderr.printf(
+        "%d documents (%d failed), %.1f MB in %.2f s: %.1f docs/s, %.1f MB/s%n",
+        files.size(),
+        tool.failures.get(),
+        megabytes,
+        seconds,
+        files.size() / seconds,
+        megabytes / seconds);
+    return 0;
+  }
+
+  /**
+   * Returns the properties of the policy, with references to context variables resolved with
+   * the given variables.
+   */
+  static Map<String, String> readPolicy(Path policy, Map<String, String> variables)
+      throws Exception {
+    Document document;
+    try (InputStream in = Files.newInputStream(policy)) {
+      document = XmlUtils.parseXml(in);
+    }
+    Map<String, String> properties = new HashMap<String, String>();
+    NodeList list = document.getElementsByTagName("Property");
+    for (int i = 0; i < list.getLength(); i++) {
+      Element property = (Element) list.item(i);
+      String value = PropertyTemplate.compile(property.getTextContent()).resolve(variables);
+      properties.put(property.getAttribute("name"), value);
+    }
+    return properties;
+  }
+
+  private static List<Path> listFiles(Path path) throws IOException {
+    if (!Files.isDirectory(path)) {
+      return Collections.singletonList(path);
+    }
+    List<Path> files = new ArrayList<Path>();
+    try (Stream<Path> tree = Files.walk(path)) {
+      Iterator<Path> paths = tree.iterator();
+      while (paths.hasNext()) {
+        Path file = paths.next();
+        if (Files.isRegularFile(file)) {
+          files.add(file);
+        }
+      }
+    }
+    Collections.sort(files);
+    return files;
+  }
+
+  /** Writes a line for each file, in the order given, evaluating up to four per thread ahead. */
+  void extract(List<Path> files, Writer out) throws Exception {
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    OrderedWriter writer = new OrderedWriter(pool, 4 * threads, out);
+    try {
+      for (final Path file : files) {
+        writer.submit(
+            new Callable<String>() {
+              public String call() {
+                return extract(file);
+              }
+            });
+      }
+      writer.finish();
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  String extract(Path file) {
+    StringBuilder sb = new StringBuilder("{");
+    ResultFormat.appendJson(sb, "file");
+    sb.append(':');
+    ResultFormat.appendJson(sb, file.toString());
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      bytes.addAndGet(buffer.remaining());
+      Document document =
+          XmlUtils.parseXml(new InputSource(new ByteBufferInputStream(buffer)));
+      Object[] values = plan.values(document);
+      List<ExtractionPlan.Binding> bindings = plan.getXpaths();
+      StringBuilder fields = new StringBuilder();
+      for (int i = 0; i < values.length; i++) {
+        fields.append(',');
+        ResultFormat.appendJson(fields, bindings.get(i).name);
+        fields.append(':');
+        ResultFormat.appendJsonValue(fields, values[i]);
+      }
+      sb.append(fields);
+    } catch (Exception exc1) {
+      failures.incrementAndGet();
+      sb.append(',');
+      ResultFormat.appendJson(sb, "error");
+      sb.append(':');
+      ResultFormat.appendJson(sb, XpathCalloutBase.getErrorMessage(exc1));
+    }
+    return sb.append("}\n").toString();
+  }
+}
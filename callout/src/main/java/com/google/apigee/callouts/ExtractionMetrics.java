@@ -0,0 +1,163 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import com.google.apigee.util.Histogram;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Cumulative timings for the ExtractXpath policies that set the timing property, kept per
+ * policy for the life of the process.
+ *
+ * <p>Each policy is registered as an MBean named
+ * com.google.apigee.callouts:type=ExtractXpath,name=<i>policy</i> when it is first loaded, if the
+ * platform MBean server is available, replacing the MBean of an earlier deployment of the proxy;
+ * {@link #snapshot()} reads the same figures directly. The
+ * policy name is the timing-name property, since a callout does not know the name of its policy.
+ */
+public final class ExtractionMetrics implements ExtractionMetricsMXBean {
+  public static final String PARSE_NANOS = "parse_ns";
+  public static final String EVAL_NANOS = "eval_ns";
+  public static final String DOCUMENT_BYTES = "document_bytes";
+  public static final String DOCUMENT_NODES = "document_nodes";
+
+  private static final ConcurrentMap<String, ExtractionMetrics> byPolicy =
+      new ConcurrentHashMap<String, ExtractionMetrics>();
+
+  private final LongAdder executions = new LongAdder();
+  private final Histogram parseNanos = new Histogram();
+  private final Histogram evalNanos = new Histogram();
+  private final Histogram documentBytes = new Histogram();
+  private final Histogram documentNodes = new Histogram();
+
+  private ExtractionMetrics() {}
+
+  /** Returns the metrics of the named policy, creating and registering them on first use. */
+  static ExtractionMetrics forPolicy(String name) {
+    ExtractionMetrics metrics = byPolicy.get(name);
+    if (metrics == null) {
+      ExtractionMetrics created = new ExtractionMetrics();
+      metrics = byPolicy.putIfAbsent(name, created);
+      if (metrics == null) {
+        metrics = created;
+        register(name, created);
+      }
+    }
+    return metrics;
+  }
+
+  private static void register(String name, ExtractionMetrics metrics) {
+    MBeanServer server;
+    ObjectName objectName;
+    try {
+      server = ManagementFactory.getPlatformMBeanServer();
+      objectName =
+          new ObjectName(
+              "com.google.apigee.callouts:type=ExtractXpath,name=" + ObjectName.quote(name));
+    } catch (JMException | SecurityException exc1) {
+      // not available here; snapshot() still works
+      return;
+    }
+    try {
+      try {
+        server.registerMBean(metrics, objectName);
+      } catch (InstanceAlreadyExistsException exc1) {
+        // left by an earlier deployment of the proxy, in another classloader. Replace it, so
+        // that JMX shows the live figures and no longer holds on to the old classes.
+        try {
+          server.unregisterMBean(objectName);
+        } catch (InstanceNotFoundException exc2) {
+          // unregistered meanwhile
+        }
+        server.registerMBean(metrics, objectName);
+      }
+    } catch (JMException | SecurityException exc1) {
+      System.err.println("ExtractXpath: cannot register the MBean " + objectName + ": " + exc1);
+    }
+  }
+
+  void record(ExecutionTiming timing) {
+    executions.increment();
+    if (timing.parseNanos >= 0) parseNanos.record(timing.parseNanos);
+    if (timing.evalNanos >= 0) evalNanos.record(timing.evalNanos);
+    if (timing.documentBytes >= 0) documentBytes.record(timing.documentBytes);
+    if (timing.documentNodes >= 0) documentNodes.record(timing.documentNodes);
+  }
+
+  /**
+   * Returns the current figures for every policy that has recorded, by policy name and then by
+   * measure: {@link #PARSE_NANOS}, {@link #EVAL_NANOS}, {@link #DOCUMENT_BYTES} and {@link
+   * #DOCUMENT_NODES}.
+   */
+  public static Map<String, Map<String, Histogram.Snapshot>> snapshot() {
+    Map<String, Map<String, Histogram.Snapshot>> snapshot =
+        new TreeMap<String, Map<String, Histogram.Snapshot>>();
+    for (Map.Entry<String, ExtractionMetrics> entry : byPolicy.entrySet()) {
+      ExtractionMetrics metrics = entry.getValue();
+      Map<String, Histogram.Snapshot> measures = new LinkedHashMap<String, Histogram.Snapshot>();
+      measures.put(PARSE_NANOS, metrics.parseNanos.snapshot());
+      measures.put(EVAL_NANOS, metrics.evalNanos.snapshot());
+      measures.put(DOCUMENT_BYTES, metrics.documentBytes.snapshot());
+      measures.put(DOCUMENT_NODES, metrics.documentNodes.snapshot());
+      snapshot.put(entry.getKey(), measures);
+    }
+    return snapshot;
+  }
+
+  private static Map<String, Long> summarize(Histogram histogram) {
+    Histogram.Snapshot snapshot = histogram.snapshot();
+    Map<String, Long> summary = new LinkedHashMap<String, Long>();
+    summary.put("count", snapshot.getCount());
+    summary.put("sum", snapshot.getSum());
+    summary.put("mean", snapshot.getMean());
+    summary.put("max", snapshot.getMax());
+    summary.put("p50", snapshot.getPercentile(50));
+    summary.put("p90", snapshot.getPercentile(90));
+    summary.put("p99", snapshot.getPercentile(99));
+    return summary;
+  }
+
+  public long getExecutions() {
+    return executions.sum();
+  }
+
+  public Map<String, Long> getParseNanos() {
+    return summarize(parseNanos);
+  }
+
+  public Map<String, Long> getEvalNanos() {
+    return summarize(evalNanos);
+  }
+
+  public Map<String, Long> getDocumentBytes() {
+    return summarize(documentBytes);
+  }
+
+  public Map<String, Long> getDocumentNodes() {
+    return summarize(documentNodes);
+  }
+}
@@ -0,0 +1,34 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import java.util.Map;
+
+/**
+ * The cumulative timings of one ExtractXpath policy, as published over JMX. Each map holds the
+ * count, sum, mean, max, p50, p90 and p99 of the measure.
+ */
+public interface ExtractionMetricsMXBean {
+  long getExecutions();
+
+  Map<String, Long> getParseNanos();
+
+  Map<String, Long> getEvalNanos();
+
+  Map<String, Long> getDocumentBytes();
+
+  Map<String, Long> getDocumentNodes();
+}
@@ -0,0 +1,300 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import com.google.apigee.util.XPathEvaluator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * The xmlns: and xpath: properties of an ExtractXpath policy, sorted once, at policy load, into
+ * static values and values that refer to context variables. When all of the namespaces are
+ * static, the namespace context is built here, and every static xpath is compiled here, so that
+ * an invalid one is reported when the policy is loaded rather than on the first request.
+ */
+final class ExtractionPlan {
+
+  /** What an xpath: property sets its variable to, given in its xpath-mode: property. */
+  enum Mode {
+    /** The text of the only node selected; an error for any other number of nodes. */
+    ONE,
+    /** The text of the first node selected, if any. */
+    FIRST,
+    /** A list with the text of each node selected. */
+    ALL,
+    /** The number of nodes selected. */
+    COUNT,
+    /** The text of each node selected, separated by the xpath-delimiter: property. */
+    JOIN;
+
+    static Mode parse(String variable, String value) {
+      if (value == null || value.trim().equals("")) return ONE;
+      try {
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+      } catch (IllegalArgumentException exc1) {
+        throw new IllegalStateException("unsupported mode for " + variable + ": " + value.trim());
+      }
+    }
+  }
+
+  /** How an xpath: property is evaluated, given in its xpath-type: property. */
+  enum Type {
+    NODESET(XPathConstants.NODESET),
+    /** The first node selected, without collecting the others. */
+    NODE(XPathConstants.NODE),
+    STRING(XPathConstants.STRING),
+    NUMBER(XPathConstants.NUMBER),
+    BOOLEAN(XPathConstants.BOOLEAN);
+
+    final QName returnType;
+
+    Type(QName returnType) {
+      this.returnType = returnType;
+    }
+
+    static Type parse(String variable, String value) {
+      if (value == null || value.trim().equals("")) return NODESET;
+      try {
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+      } catch (IllegalArgumentException exc1) {
+        throw new IllegalStateException("unsupported type for " + variable + ": " + value.trim());
+      }
+    }
+  }
+
+  static final class Binding {
+    final String name;
+    final String spec;
+    final PropertyTemplate template;
+    final boolean templated;
+    final Type type;
+    final Mode mode;
+    final String delimiter;
+
+    Binding(String name, String spec) {
+      this(name, spec, Type.NODESET, Mode.ONE, null);
+    }
+
+    Binding(String name, String spec, Type type, Mode mode, String delimiter) {
+      this.name = name;
+      this.spec = spec;
+      this.template = PropertyTemplate.compile(spec);
+      this.templated = !template.isLiteral();
+      this.type = type;
+      this.mode = mode;
+      this.delimiter = delimiter;
+    }
+
+    /**
+     * Returns the value to set for what evaluating the xpath returned, or null to leave the
+     * variable unset. Throws IllegalStateException if the mode is ONE and the xpath did not
+     * select exactly one node.
+     */
+    Object value(Object evaluated) {
+      switch (type) {
+        case NODESET:
+          return value((NodeList) evaluated);
+        case NODE:
+          return (evaluated == null) ? null : text((Node) evaluated);
+        default:
+          // a String, Double or Boolean, set as it is
+          return evaluated;
+      }
+    }
+
+    private Object value(NodeList nodes) {
+      int length = nodes.getLength();
+      switch (mode) {
+        case FIRST:
+          return (length == 0) ? null : text(nodes.item(0));
+        case ALL:
+          List<String> values = new ArrayList<String>(length);
+          for (int i = 0; i < length; i++) {
+            values.add(text(nodes.item(i)));
+          }
+          return values;
+        case COUNT:
+          return length;
+        case JOIN:
+          StringBuilder sb = new StringBuilder();
+          for (int i = 0; i < length; i++) {
+            if (i > 0) sb.append(delimiter);
+            sb.append(text(nodes.item(i)));
+          }
+          return sb.toString();
+        default:
+          validate(length);
+          return text(nodes.item(0));
+      }
+    }
+  }
+
+  static void validate(int length) throws IllegalStateException {
+    if (length != 1) {
+      throw new IllegalStateException(
+          "xpath does not resolve to one node. (length=" + length + ")");
+    }
+  }
+
+  private static String text(Node currentNode) {
+    short nodeType = currentNode.getNodeType();
+    switch (nodeType) {
+      case Node.ATTRIBUTE_NODE:
+        return ((Attr) currentNode).getNodeValue();
+      case Node.ELEMENT_NODE:
+        return ((Element) currentNode).getTextContent();
+      case Node.TEXT_NODE:
+        return currentNode.getNodeValue();
+    }
+    return "";
+  }
+
+  private final List<Binding> namespaces;
+  private final List<Binding> xpaths;
+  private final XPathEvaluator staticEvaluator;
+
+  ExtractionPlan(Map properties) {
+    // sorted by prefix and by variable name, to get a predictable order of evaluation
+    Map<String, Binding> ns = new TreeMap<String, Binding>();
+    Map<String, Binding> xp = new TreeMap<String, Binding>();
+    for (Object prop : properties.keySet()) {
+      String key = (String) prop;
+      if (key.startsWith("xmlns:")) {
+        String prefix = nameFromKey(key);
+        ns.put(prefix, new Binding(prefix, (String) properties.get(key)));
+      } else if (key.startsWith("xpath:")) {
+        String variable = nameFromKey(key);
+        Type type = Type.parse(variable, (String) properties.get("xpath-type:" + variable));
+        Mode mode = Mode.parse(variable, (String) properties.get("xpath-mode:" + variable));
+        if (type != Type.NODESET && mode != Mode.ONE) {
+          throw new IllegalStateException("xpath-mode applies only to a nodeset: " + variable);
+        }
+        String delimiter = (String) properties.get("xpath-delimiter:" + variable);
+        xp.put(
+            variable,
+            new Binding(
+                variable,
+                (String) properties.get(key),
+                type,
+                mode,
+                (delimiter == null) ? "," : delimiter));
+      } else if (key.startsWith("xpath-type:")
+          || key.startsWith("xpath-mode:")
+          || key.startsWith("xpath-delimiter:")) {
+        String variable = nameFromKey(key);
+        if (!properties.containsKey("xpath:" + variable)) {
+          throw new IllegalStateException("no xpath for property: " + key);
+        }
+      }
+    }
+    this.namespaces = Collections.unmodifiableList(new ArrayList<Binding>(ns.values()));
+    this.xpaths = Collections.unmodifiableList(new ArrayList<Binding>(xp.values()));
+
+    boolean allNamespacesStatic = true;
+    for (Binding binding : namespaces) {
+      allNamespacesStatic = allNamespacesStatic && !binding.templated;
+    }
+    if (!allNamespacesStatic) {
+      this.staticEvaluator = null;
+      return;
+    }
+    this.staticEvaluator = new XPathEvaluator();
+    for (Binding binding : namespaces) {
+      staticEvaluator.registerNamespace(binding.name, binding.spec);
+    }
+    for (Binding binding : xpaths) {
+      if (!binding.templated) {
+        try {
+          staticEvaluator.compile(binding.spec);
+        } catch (XPathExpressionException exc1) {
+          throw new IllegalStateException(
+              "invalid xpath for "
+                  + binding.name
+                  + ": "
+                  + XpathCalloutBase.getErrorMessage(exc1),
+              exc1);
+        }
+      }
+    }
+  }
+
+  // same as key.split(":")[1]
+  private static String nameFromKey(String key) {
+    int start = key.indexOf(':') + 1;
+    int end = key.indexOf(':', start);
+    String name = (end < 0) ? key.substring(start) : key.substring(start, end);
+    if (name.equals("")) {
+      throw new IllegalStateException("invalid property name: " + key);
+    }
+    return name;
+  }
+
+  List<Binding> getNamespaces() {
+    return namespaces;
+  }
+
+  List<Binding> getXpaths() {
+    return xpaths;
+  }
+
+  /** True if neither the namespaces nor the xpaths refer to context variables. */
+  boolean isStatic() {
+    if (staticEvaluator == null) return false;
+    for (Binding binding : xpaths) {
+      if (binding.templated) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Evaluates each xpath against the document with the static evaluator, for the offline
+   * extractors, and returns the value of each, or null where the xpath does not select what its
+   * mode requires, as the policy leaves its variable unset.
+   */
+  Object[] values(Document document) throws Exception {
+    Object[] values = new Object[xpaths.size()];
+    for (int i = 0; i < values.length; i++) {
+      Binding binding = xpaths.get(i);
+      Object evaluated = staticEvaluator.evaluate(binding.spec, document, binding.type.returnType);
+      try {
+        values[i] = binding.value(evaluated);
+      } catch (IllegalStateException exc1) {
+        values[i] = null;
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Returns the evaluator for the static namespace context, or null if any namespace refers to
+   * a context variable and must be resolved per request.
+   */
+  XPathEvaluator getStaticEvaluator() {
+    return staticEvaluator;
+  }
+}
@@ -0,0 +1,68 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Writes lines that are computed on a pool, for the offline extractors, in the order in which
+ * they were submitted. At most maxInFlight of them are computed and not yet written at any
+ * time; submitting another first waits for, and writes, the oldest.
+ */
+final class OrderedWriter {
+  private final ExecutorService pool;
+  private final int maxInFlight;
+  private final Writer out;
+  private final ArrayDeque<Future<String>> inFlight;
+
+  OrderedWriter(ExecutorService pool, int maxInFlight, Writer out) {
+    this.pool = pool;
+    this.maxInFlight = maxInFlight;
+    this.out = out;
+    this.inFlight = new ArrayDeque<Future<String>>(maxInFlight);
+  }
+
+  /** Throws what an earlier line threw, if that line is written now. */
+  void submit(Callable<String> line) throws Exception {
+    if (inFlight.size() == maxInFlight) {
+      writeOldest();
+    }
+    inFlight.addLast(pool.submit(line));
+  }
+
+  /** Writes the lines still in flight. */
+  void finish() throws Exception {
+    while (!inFlight.isEmpty()) {
+      writeOldest();
+    }
+  }
+
+  private void writeOldest() throws Exception {
+    String line;
+    try {
+      line = inFlight.removeFirst().get();
+    } catch (ExecutionException exc1) {
+      Throwable cause = exc1.getCause();
+      throw (cause instanceof Exception) ? (Exception) cause : exc1;
+    }
+    out.write(line);
+  }
+}
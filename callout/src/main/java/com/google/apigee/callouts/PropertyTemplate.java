@@ -0,0 +1,127 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import com.apigee.flow.message.MessageContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A property value, split once into literal text and references to context variables.
+ *
+ * <p>A reference is a pair of curlies around one or more characters, none of which is a curly
+ * or a space, eg {apiproxy.name}. Anything else, including unmatched curlies, is literal text.
+ * A reference to a variable that is not set resolves to the empty string.
+ */
+final class PropertyTemplate {
+  private static final int MAX_RETAINED_CAPACITY = 8192;
+
+  private static final ThreadLocal<StringBuilder> builders =
+      new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+          return new StringBuilder(256);
+        }
+      };
+
+  private final String spec;
+  // literals[0] names[0] literals[1] names[1] ... literals[n]
+  private final String[] literals;
+  private final String[] names;
+
+  private PropertyTemplate(String spec, String[] literals, String[] names) {
+    this.spec = spec;
+    this.literals = literals;
+    this.names = names;
+  }
+
+  static PropertyTemplate compile(String spec) {
+    List<String> literals = new ArrayList<String>();
+    List<String> names = new ArrayList<String>();
+    int literalStart = 0;
+    int open = spec.indexOf('{');
+    while (open >= 0) {
+      int end = open + 1;
+      while (end < spec.length() && !isDelimiter(spec.charAt(end))) {
+        end++;
+      }
+      if (end > open + 1 && end < spec.length() && spec.charAt(end) == '}') {
+        literals.add(spec.substring(literalStart, open));
+        names.add(spec.substring(open + 1, end));
+        literalStart = end + 1;
+        open = spec.indexOf('{', literalStart);
+      } else {
+        open = spec.indexOf('{', open + 1);
+      }
+    }
+    literals.add(spec.substring(literalStart));
+    return new PropertyTemplate(
+        spec, literals.toArray(new String[0]), names.toArray(new String[0]));
+  }
+
+  private static boolean isDelimiter(char c) {
+    return c == '{' || c == '}' || c == ' ';
+  }
+
+  /** True if the value refers to no context variables. */
+  boolean isLiteral() {
+    return names.length == 0;
+  }
+
+  String resolve(MessageContext msgCtxt) {
+    if (names.length == 0) {
+      return spec;
+    }
+    StringBuilder sb = builders.get();
+    sb.setLength(0);
+    sb.append(literals[0]);
+    for (int i = 0; i < names.length; i++) {
+      Object v = msgCtxt.getVariable(names[i]);
+      if (v != null) {
+        sb.append((String) v);
+      }
+      sb.append(literals[i + 1]);
+    }
+    return release(sb);
+  }
+
+  /** As {@link #resolve(MessageContext)}, with the variables given in a map. */
+  String resolve(Map<String, String> variables) {
+    if (names.length == 0) {
+      return spec;
+    }
+    StringBuilder sb = builders.get();
+    sb.setLength(0);
+    sb.append(literals[0]);
+    for (int i = 0; i < names.length; i++) {
+      String v = variables.get(names[i]);
+      if (v != null) {
+        sb.append(v);
+      }
+      sb.append(literals[i + 1]);
+    }
+    return release(sb);
+  }
+
+  private static String release(StringBuilder sb) {
+    String resolved = sb.toString();
+    if (sb.capacity() > MAX_RETAINED_CAPACITY) {
+      builders.remove();
+    }
+    return resolved;
+  }
+}
@@ -0,0 +1,104 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import java.util.List;
+
+/** Writes extracted values as JSON and CSV, for the offline extractors. */
+final class ResultFormat {
+  private ResultFormat() {}
+
+  // a whole number without a fraction, as XPath converts a number to a string
+  static String number(double d) {
+    if (d == Math.rint(d) && Math.abs(d) < 1e15) {
+      return Long.toString((long) d);
+    }
+    return Double.toString(d);
+  }
+
+  static void appendCsv(StringBuilder sb, String s) {
+    boolean quoted = false;
+    for (int i = 0; i < s.length() && !quoted; i++) {
+      char c = s.charAt(i);
+      quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+    if (!quoted) {
+      sb.append(s);
+      return;
+    }
+    sb.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"') sb.append('"');
+      sb.append(c);
+    }
+    sb.append('"');
+  }
+
+  static void appendJsonValue(StringBuilder sb, Object value) {
+    if (value == null) {
+      sb.append("null");
+    } else if (value instanceof String) {
+      appendJson(sb, (String) value);
+    } else if (value instanceof Double) {
+      double d = (Double) value;
+      // JSON has no NaN or Infinity
+      sb.append((Double.isNaN(d) || Double.isInfinite(d)) ? "null" : number(d));
+    } else if (value instanceof List) {
+      sb.append('[');
+      List list = (List) value;
+      for (int i = 0; i < list.size(); i++) {
+        if (i > 0) sb.append(',');
+        appendJsonValue(sb, list.get(i));
+      }
+      sb.append(']');
+    } else {
+      // an Integer or a Boolean
+      sb.append(value);
+    }
+  }
+
+  static void appendJson(StringBuilder sb, String s) {
+    sb.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            sb.append(String.format("\\u%04x", (int) c));
+          } else {
+            sb.append(c);
+          }
+      }
+    }
+    sb.append('"');
+  }
+}
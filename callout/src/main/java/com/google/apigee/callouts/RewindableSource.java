@@ -0,0 +1,74 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import org.xml.sax.InputSource;
+
+/**
+ * The source of one execution, marked so that it can be read again from the start, as when the
+ * streaming engine gives up part way through and the document is parsed instead. A stream that
+ * cannot be marked, such as the message content, is buffered; the buffer holds what has been
+ * read so far, which, when streaming stops early, is less than the whole document.
+ */
+final class RewindableSource {
+  private final InputStream in;
+  private final Reader reader;
+  private final String encoding;
+  private final String systemId;
+
+  RewindableSource(InputSource source) {
+    InputStream in = source.getByteStream();
+    Reader reader = source.getCharacterStream();
+    try {
+      if (reader != null) {
+        if (!reader.markSupported()) {
+          throw new IllegalStateException("source reader cannot be read twice");
+        }
+        reader.mark(Integer.MAX_VALUE);
+      } else if (in != null) {
+        if (!in.markSupported()) {
+          in = new BufferedInputStream(in);
+        }
+        in.mark(Integer.MAX_VALUE);
+      }
+    } catch (IOException exc1) {
+      throw new IllegalStateException(exc1);
+    }
+    this.in = in;
+    this.reader = reader;
+    this.encoding = source.getEncoding();
+    this.systemId = source.getSystemId();
+  }
+
+  /** Returns a source that reads from the start. */
+  InputSource open() throws IOException {
+    InputSource source = new InputSource();
+    if (reader != null) {
+      reader.reset();
+      source.setCharacterStream(reader);
+    } else if (in != null) {
+      in.reset();
+      source.setByteStream(in);
+    }
+    source.setEncoding(encoding);
+    source.setSystemId(systemId);
+    return source;
+  }
+}
@@ -16,20 +16,28 @@
 package com.google.apigee.callouts;
 
 import com.apigee.flow.message.MessageContext;
+import com.google.apigee.util.ByteBufferInputStream;
+import com.google.apigee.util.CompactDocument;
+import com.google.apigee.util.ParseLimits;
+import com.google.apigee.util.ParseOptions;
 import com.google.apigee.util.XmlUtils;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.io.PrintWriter;
+import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
 
 public abstract class XpathCalloutBase {
   private static final String _varprefix = "xpath_";
   protected Map properties; // read-only
-  private static final String variableReferencePatternString = "(.*?)\\{([^\\{\\} ]+?)\\}(.*?)";
-  private static final Pattern variableReferencePattern =
-      Pattern.compile(variableReferencePatternString);
+  private final ConcurrentMap<String, PropertyTemplate> templates =
+      new ConcurrentHashMap<String, PropertyTemplate>();
 
   public XpathCalloutBase(Map properties) {
     this.properties = properties;
@@ -39,16 +47,65 @@ public abstract class XpathCalloutBase {
     return _varprefix + s;
   }
 
-  protected Document getDocument(MessageContext msgCtxt) throws Exception {
+  // The source variable may hold the XML as a String, or as bytes: a byte[], a ByteBuffer or an
+  // InputStream. Bytes are parsed as they are, and the parser detects the encoding.
+  protected InputSource getSource(MessageContext msgCtxt) throws Exception {
     String source = getSimpleOptionalProperty("source", msgCtxt);
     if (source == null) {
-      return XmlUtils.parseXml(msgCtxt.getMessage().getContentAsStream());
+      return new InputSource(msgCtxt.getMessage().getContentAsStream());
     }
-    String text = (String) msgCtxt.getVariable(source);
-    if (text == null) {
+    Object value = msgCtxt.getVariable(source);
+    if (value == null) {
       throw new IllegalStateException("source variable resolves to null");
     }
-    return XmlUtils.parseXml(text);
+    if (value instanceof String) {
+      return new InputSource(new StringReader((String) value));
+    }
+    if (value instanceof byte[]) {
+      return new InputSource(new ByteArrayInputStream((byte[]) value));
+    }
+    if (value instanceof ByteBuffer) {
+      ByteBuffer buffer = (ByteBuffer) value;
+      if (buffer.hasArray()) {
+        return new InputSource(
+            new ByteArrayInputStream(
+                buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining()));
+      }
+      return new InputSource(new ByteBufferInputStream(buffer));
+    }
+    if (value instanceof InputStream) {
+      return new InputSource((InputStream) value);
+    }
+    throw new IllegalStateException(
+        "source variable is not a String, byte[], ByteBuffer or InputStream");
+  }
+
+  protected Document getDocument(MessageContext msgCtxt) throws Exception {
+    return XmlUtils.parseXml(getSource(msgCtxt));
+  }
+
+  Document parseDocument(InputSource source, ParseOptions options, ExecutionTiming timing)
+      throws Exception {
+    if (timing == null) {
+      return XmlUtils.parseXml(source, options);
+    }
+    source = timing.count(source);
+    long start = System.nanoTime();
+    Document document = XmlUtils.parseXml(source, options);
+    timing.parsed(start);
+    return document;
+  }
+
+  CompactDocument parseCompactDocument(
+      InputSource source, ParseLimits limits, ExecutionTiming timing) throws Exception {
+    if (timing == null) {
+      return XmlUtils.parseCompact(source, limits);
+    }
+    source = timing.count(source);
+    long start = System.nanoTime();
+    CompactDocument document = XmlUtils.parseCompact(source, limits);
+    timing.parsed(start);
+    return document;
   }
 
   protected static String getStackTrace(Throwable e) {
@@ -65,12 +122,28 @@ public abstract class XpathCalloutBase {
   // }
 
   protected boolean getDebug() {
-    String value = (String) this.properties.get("debug");
+    return getBooleanProperty("debug");
+  }
+
+  protected boolean getBooleanProperty(String propName) {
+    String value = (String) this.properties.get(propName);
     if (value == null) return false;
     if (value.trim().toLowerCase().equals("true")) return true;
     return false;
   }
 
+  protected int getIntProperty(String propName, int defaultValue) {
+    String value = (String) this.properties.get(propName);
+    if (value == null || value.trim().equals("")) return defaultValue;
+    try {
+      int n = Integer.parseInt(value.trim());
+      if (n >= 0) return n;
+    } catch (NumberFormatException exc1) {
+      // fall through
+    }
+    throw new IllegalStateException(propName + " must be a non-negative integer");
+  }
+
   // protected String getOutputVar(MessageContext msgCtxt) throws Exception {
   //     String dest = getSimpleOptionalProperty("output-variable", msgCtxt);
   //     if (dest == null) {
@@ -116,36 +189,84 @@ public abstract class XpathCalloutBase {
   // If the value of a property contains any pairs of curlies,
   // eg, {apiproxy.name}, then "resolve" the value by de-referencing
   // the context variables whose names appear between curlies.
+  // Each value is parsed once, on first use.
   protected String resolvePropertyValue(String spec, MessageContext msgCtxt) {
-    Matcher matcher = variableReferencePattern.matcher(spec);
-    StringBuffer sb = new StringBuffer();
-    while (matcher.find()) {
-      matcher.appendReplacement(sb, "");
-      sb.append(matcher.group(1));
-      Object v = msgCtxt.getVariable(matcher.group(2));
-      if (v != null) {
-        sb.append((String) v);
+    PropertyTemplate template = templates.get(spec);
+    if (template == null) {
+      template = PropertyTemplate.compile(spec);
+      templates.putIfAbsent(spec, template);
+    }
+    return template.resolve(msgCtxt);
+  }
+
+  static String getErrorMessage(Exception exc1) {
+    return errorMessage(exc1.toString());
+  }
+
+  /**
+   * Returns the text after the last qualified class name followed by ": ", as in
+   * "javax.xml.xpath.XPathExpressionException: javax.xml.transform.TransformerException: A
+   * location step was expected", or the whole error if there is none, or if the error spans
+   * more than one line. This is what the regex
+   * {@code ^.*(?:[a-zA-Z_$][a-zA-Z0-9_$]*\.)+[a-zA-Z_$][a-zA-Z0-9_$]*: (.+)$} finds, without
+   * the backtracking.
+   */
+  static String errorMessage(String error) {
+    int end = error.length();
+    // as $ does, allow one line terminator at the end
+    if (end >= 2 && error.charAt(end - 2) == '\r' && error.charAt(end - 1) == '\n') {
+      end -= 2;
+    } else if (end >= 1 && isLineTerminator(error.charAt(end - 1))) {
+      end -= 1;
+    }
+    for (int i = 0; i < end; i++) {
+      if (isLineTerminator(error.charAt(i))) return error;
+    }
+    // the message must not be empty, so the last ": " that can precede it starts at end - 3
+    for (int colon = error.lastIndexOf(": ", end - 3); colon > 0;
+        colon = error.lastIndexOf(": ", colon - 1)) {
+      if (endsWithQualifiedName(error, colon)) {
+        return error.substring(colon + 2, end);
       }
-      sb.append(matcher.group(3));
     }
-    matcher.appendTail(sb);
-    return sb.toString();
+    return error;
   }
 
-  private static final String qualifiedClassNameRegex =
-      "(?:[a-zA-Z_$][a-zA-Z0-9_$]*\\.)+[a-zA-Z_$][a-zA-Z0-9_$]*";
-  private static final String errorSuffixRegex = ": (.+)";
-  private static final Pattern errorStringPattern =
-      Pattern.compile("^.*" + qualifiedClassNameRegex + errorSuffixRegex + "$");
+  private static boolean isLineTerminator(char c) {
+    return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+  }
 
-  protected void setExceptionVariables(Exception exc1, MessageContext msgCtxt) {
-    String error = exc1.toString();
-    msgCtxt.setVariable(varName("exception"), error);
-    Matcher matcher = errorStringPattern.matcher(error);
-    if (matcher.find()) {
-      msgCtxt.setVariable(varName("error"), matcher.group(1));
-    } else {
-      msgCtxt.setVariable(varName("error"), error);
+  private static boolean isIdentifierPart(char c) {
+    return (c >= 'a' && c <= 'z')
+        || (c >= 'A' && c <= 'Z')
+        || (c >= '0' && c <= '9')
+        || c == '_'
+        || c == '$';
+  }
+
+  // True if the text before end ends with at least two identifiers joined by dots, eg a.B.
+  private static boolean endsWithQualifiedName(String s, int end) {
+    // the last identifier is all of the identifier characters after the last dot
+    int dot = end - 1;
+    while (dot >= 0 && isIdentifierPart(s.charAt(dot))) {
+      dot--;
+    }
+    if (dot < 0 || s.charAt(dot) != '.' || dot == end - 1 || isDigit(s.charAt(dot + 1))) {
+      return false;
     }
+    // before the dot, any identifier, which can start anywhere in the run before it
+    for (int i = dot - 1; i >= 0 && isIdentifierPart(s.charAt(i)); i--) {
+      if (!isDigit(s.charAt(i))) return true;
+    }
+    return false;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  protected void setExceptionVariables(Exception exc1, MessageContext msgCtxt) {
+    msgCtxt.setVariable(varName("exception"), exc1.toString());
+    msgCtxt.setVariable(varName("error"), getErrorMessage(exc1));
   }
 }
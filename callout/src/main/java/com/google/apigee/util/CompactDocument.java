@@ -0,0 +1,132 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.util;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * An immutable XML document, stored as parallel arrays of primitives rather than as one object
+ * per node.
+ *
+ * <p>Each node is an index into the arrays, in document order: the document node is 0, and the
+ * attributes of an element immediately follow the element, ahead of its children. Element and
+ * attribute names are interned in a table shared by all the nodes, and all character data lives
+ * in one buffer. The nodes are the ones the DOM parser would build, with adjacent character
+ * data merged into one text node and each CDATA section a node of its own. Namespace
+ * declarations are attributes. The DOCTYPE is not kept.
+ *
+ * <p>A CompactDocument can be read by any number of threads at once. To evaluate xpaths with
+ * JAXP, get a read-only DOM view with {@link #newView()}. A view creates the node objects it
+ * hands out on demand, and is meant for one thread at a time; each thread should use its own.
+ */
+public final class CompactDocument {
+  static final int NONE = -1;
+
+  final int size;
+  final byte[] kind; // the DOM node type
+  final int[] parent; // for an attribute, the owner element
+  final int[] firstChild;
+  final int[] nextSibling; // for an attribute, the next attribute of the same element
+  final int[] name; // an index into the name tables, or NONE
+  final int[] valueStart;
+  final int[] valueLength;
+  final char[] chars;
+
+  // name tables; a PI target is a name with no namespace
+  final String[] qualifiedNames;
+  final String[] localNames;
+  final String[] prefixes;
+  final String[] namespaceURIs;
+
+  CompactDocument(
+      int size,
+      byte[] kind,
+      int[] parent,
+      int[] firstChild,
+      int[] nextSibling,
+      int[] name,
+      int[] valueStart,
+      int[] valueLength,
+      char[] chars,
+      String[] qualifiedNames,
+      String[] localNames,
+      String[] prefixes,
+      String[] namespaceURIs) {
+    this.size = size;
+    this.kind = kind;
+    this.parent = parent;
+    this.firstChild = firstChild;
+    this.nextSibling = nextSibling;
+    this.name = name;
+    this.valueStart = valueStart;
+    this.valueLength = valueLength;
+    this.chars = chars;
+    this.qualifiedNames = qualifiedNames;
+    this.localNames = localNames;
+    this.prefixes = prefixes;
+    this.namespaceURIs = namespaceURIs;
+  }
+
+  /** Returns the number of nodes, including the document node and attributes. */
+  public int getNodeCount() {
+    return size;
+  }
+
+  /** Returns the number of characters of text and attribute values. */
+  public int getCharCount() {
+    return chars.length;
+  }
+
+  /** Returns a new read-only DOM view of this document, for use by one thread at a time. */
+  public Document newView() {
+    return new CompactDom.DocumentView(this);
+  }
+
+  /** Returns the document that the given view was created from, or null if it is not a view. */
+  public static CompactDocument of(Document view) {
+    return (view instanceof CompactDom.DocumentView)
+        ? ((CompactDom.DocumentView) view).document
+        : null;
+  }
+
+  String value(int node) {
+    return new String(chars, valueStart[node], valueLength[node]);
+  }
+
+  int firstAttribute(int element) {
+    int next = element + 1;
+    return (next < size && kind[next] == Node.ATTRIBUTE_NODE && parent[next] == element)
+        ? next
+        : NONE;
+  }
+
+  // appends the text of the character data below the node, as getTextContent() does
+  void appendText(int node, StringBuilder sb) {
+    for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+      switch (kind[child]) {
+        case Node.TEXT_NODE:
+        case Node.CDATA_SECTION_NODE:
+          sb.append(chars, valueStart[child], valueLength[child]);
+          break;
+        case Node.ELEMENT_NODE:
+          appendText(child, sb);
+          break;
+        default:
+          break;
+      }
+    }
+  }
+}
@@ -0,0 +1,261 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/** A SAX handler that fills in the arrays of a {@link CompactDocument}. */
+final class CompactDocumentBuilder extends DefaultHandler implements LexicalHandler {
+  private static final int NONE = CompactDocument.NONE;
+
+  private int size;
+  private byte[] kind = new byte[256];
+  private int[] parent = new int[256];
+  private int[] firstChild = new int[256];
+  private int[] nextSibling = new int[256];
+  private int[] name = new int[256];
+  private int[] valueStart = new int[256];
+  private int[] valueLength = new int[256];
+  private char[] chars = new char[4096];
+  private int charCount;
+
+  // names, interned by namespace and then by qualified name
+  private final Map<String, Map<String, Integer>> nameIds =
+      new HashMap<String, Map<String, Integer>>();
+  private final List<String> qualifiedNames = new ArrayList<String>();
+  private final List<String> localNames = new ArrayList<String>();
+  private final List<String> prefixes = new ArrayList<String>();
+  private final List<String> namespaceURIs = new ArrayList<String>();
+
+  // the open elements, and the last child added to each
+  private int[] open = new int[32];
+  private int[] lastChild = new int[32];
+  private int depth;
+
+  private int[] order = new int[8];
+  private int cdata = NONE;
+  private boolean inDtd;
+
+  CompactDocumentBuilder() {
+    addNode(Node.DOCUMENT_NODE, NONE, NONE);
+    open[0] = 0;
+    lastChild[0] = NONE;
+  }
+
+  CompactDocument getDocument() {
+    return new CompactDocument(
+        size,
+        Arrays.copyOf(kind, size),
+        Arrays.copyOf(parent, size),
+        Arrays.copyOf(firstChild, size),
+        Arrays.copyOf(nextSibling, size),
+        Arrays.copyOf(name, size),
+        Arrays.copyOf(valueStart, size),
+        Arrays.copyOf(valueLength, size),
+        Arrays.copyOf(chars, charCount),
+        qualifiedNames.toArray(new String[0]),
+        localNames.toArray(new String[0]),
+        prefixes.toArray(new String[0]),
+        namespaceURIs.toArray(new String[0]));
+  }
+
+  private int addNode(int nodeKind, int parentNode, int nameId) {
+    if (size == kind.length) {
+      int capacity = size * 2;
+      kind = Arrays.copyOf(kind, capacity);
+      parent = Arrays.copyOf(parent, capacity);
+      firstChild = Arrays.copyOf(firstChild, capacity);
+      nextSibling = Arrays.copyOf(nextSibling, capacity);
+      name = Arrays.copyOf(name, capacity);
+      valueStart = Arrays.copyOf(valueStart, capacity);
+      valueLength = Arrays.copyOf(valueLength, capacity);
+    }
+    int node = size++;
+    kind[node] = (byte) nodeKind;
+    parent[node] = parentNode;
+    firstChild[node] = NONE;
+    nextSibling[node] = NONE;
+    name[node] = nameId;
+    valueStart[node] = charCount;
+    valueLength[node] = 0;
+    return node;
+  }
+
+  private int addChild(int nodeKind, int nameId) {
+    int node = addNode(nodeKind, open[depth], nameId);
+    if (lastChild[depth] == NONE) {
+      firstChild[open[depth]] = node;
+    } else {
+      nextSibling[lastChild[depth]] = node;
+    }
+    lastChild[depth] = node;
+    return node;
+  }
+
+  private void appendValue(int node, char[] ch, int start, int length) {
+    if (charCount + length > chars.length) {
+      chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+    }
+    System.arraycopy(ch, start, chars, charCount, length);
+    charCount += length;
+    valueLength[node] += length;
+  }
+
+  private void appendValue(int node, String s) {
+    int length = s.length();
+    if (charCount + length > chars.length) {
+      chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+    }
+    s.getChars(0, length, chars, charCount);
+    charCount += length;
+    valueLength[node] += length;
+  }
+
+  private int nameId(String uri, String qName) {
+    String namespaceURI = (uri == null || uri.length() == 0) ? null : uri;
+    Map<String, Integer> byName = nameIds.get(namespaceURI);
+    if (byName == null) {
+      byName = new HashMap<String, Integer>();
+      nameIds.put(namespaceURI, byName);
+    }
+    Integer id = byName.get(qName);
+    if (id == null) {
+      id = qualifiedNames.size();
+      int colon = qName.indexOf(':');
+      qualifiedNames.add(qName);
+      localNames.add((colon < 0) ? qName : qName.substring(colon + 1));
+      prefixes.add((colon < 0) ? null : qName.substring(0, colon));
+      namespaceURIs.add(namespaceURI);
+      byName.put(qName, id);
+    }
+    return id;
+  }
+
+  @Override
+  public void startElement(String uri, String localName, String qName, Attributes attributes) {
+    int element = addChild(Node.ELEMENT_NODE, nameId(uri, qName));
+    int previous = NONE;
+    sortByName(attributes);
+    for (int k = 0; k < attributes.getLength(); k++) {
+      int i = order[k];
+      int nameId = nameId(attributes.getURI(i), attributes.getQName(i));
+      int attribute = addNode(Node.ATTRIBUTE_NODE, element, nameId);
+      appendValue(attribute, attributes.getValue(i));
+      if (previous != NONE) {
+        nextSibling[previous] = attribute;
+      }
+      previous = attribute;
+    }
+    depth++;
+    if (depth == open.length) {
+      open = Arrays.copyOf(open, depth * 2);
+      lastChild = Arrays.copyOf(lastChild, depth * 2);
+    }
+    open[depth] = element;
+    lastChild[depth] = NONE;
+  }
+
+  // fills in order with the indexes of the attributes, sorted by name, as the DOM keeps them
+  private void sortByName(Attributes attributes) {
+    int length = attributes.getLength();
+    if (order.length < length) {
+      order = new int[length];
+    }
+    for (int i = 0; i < length; i++) {
+      String qName = attributes.getQName(i);
+      int j = i;
+      for (; j > 0 && attributes.getQName(order[j - 1]).compareTo(qName) > 0; j--) {
+        order[j] = order[j - 1];
+      }
+      order[j] = i;
+    }
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qName) {
+    depth--;
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length) {
+    if (depth == 0 || inDtd) return;
+    if (cdata != NONE) {
+      appendValue(cdata, ch, start, length);
+      return;
+    }
+    if (length == 0) return;
+    int last = lastChild[depth];
+    if (last == NONE || kind[last] != Node.TEXT_NODE) {
+      last = addChild(Node.TEXT_NODE, NONE);
+    }
+    appendValue(last, ch, start, length);
+  }
+
+  @Override
+  public void ignorableWhitespace(char[] ch, int start, int length) {
+    characters(ch, start, length);
+  }
+
+  @Override
+  public void processingInstruction(String target, String data) {
+    if (inDtd) return;
+    int node = addChild(Node.PROCESSING_INSTRUCTION_NODE, nameId(null, target));
+    if (data != null) {
+      appendValue(node, data);
+    }
+  }
+
+  @Override
+  public void comment(char[] ch, int start, int length) {
+    if (inDtd) return;
+    appendValue(addChild(Node.COMMENT_NODE, NONE), ch, start, length);
+  }
+
+  @Override
+  public void startCDATA() {
+    if (depth > 0) {
+      cdata = addChild(Node.CDATA_SECTION_NODE, NONE);
+    }
+  }
+
+  @Override
+  public void endCDATA() {
+    cdata = NONE;
+  }
+
+  @Override
+  public void startDTD(String name, String publicId, String systemId) {
+    inDtd = true;
+  }
+
+  @Override
+  public void endDTD() {
+    inDtd = false;
+  }
+
+  @Override
+  public void startEntity(String name) {}
+
+  @Override
+  public void endEntity(String name) {}
+}
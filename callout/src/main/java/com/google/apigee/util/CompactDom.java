@@ -0,0 +1,1094 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import org.w3c.dom.Attr;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.Comment;
+import org.w3c.dom.DOMConfiguration;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.EntityReference;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.ProcessingInstruction;
+import org.w3c.dom.Text;
+import org.w3c.dom.TypeInfo;
+import org.w3c.dom.UserDataHandler;
+
+/**
+ * A read-only DOM over a {@link CompactDocument}. Each view hands out at most one node object
+ * per node, created the first time it is asked for, so that node identity holds within the
+ * view, as JAXP XPath requires. The nodes hold nothing but their position in the document, and
+ * strings are created as they are asked for. Anything that would change the document throws a
+ * DOMException.
+ *
+ * <p>Attributes have no child nodes here; their value is available from getValue().
+ */
+final class CompactDom {
+  private static final int NONE = CompactDocument.NONE;
+  private static final int PAGE_BITS = 10;
+  private static final String XMLNS_URI = "http://www.w3.org/2000/xmlns/";
+
+  private CompactDom() {}
+
+  private static DOMException readOnly() {
+    return new DOMException(DOMException.NO_MODIFICATION_ALLOWED_ERR, "the document is read-only");
+  }
+
+  private static DOMException notSupported() {
+    return new DOMException(DOMException.NOT_SUPPORTED_ERR, "not supported");
+  }
+
+  abstract static class NodeImpl implements Node {
+    final DocumentView view;
+    final CompactDocument doc;
+    final int id;
+
+    NodeImpl(DocumentView view, CompactDocument doc, int id) {
+      this.view = (view == null) ? (DocumentView) this : view;
+      this.doc = doc;
+      this.id = id;
+    }
+
+    @Override
+    public String getNodeValue() {
+      return null;
+    }
+
+    @Override
+    public void setNodeValue(String nodeValue) {
+      throw readOnly();
+    }
+
+    @Override
+    public short getNodeType() {
+      return doc.kind[id];
+    }
+
+    @Override
+    public Node getParentNode() {
+      return view.node(doc.parent[id]);
+    }
+
+    @Override
+    public NodeList getChildNodes() {
+      return new ChildList(this);
+    }
+
+    @Override
+    public Node getFirstChild() {
+      return view.node(doc.firstChild[id]);
+    }
+
+    @Override
+    public Node getLastChild() {
+      int last = NONE;
+      for (int child = doc.firstChild[id]; child != NONE; child = doc.nextSibling[child]) {
+        last = child;
+      }
+      return view.node(last);
+    }
+
+    @Override
+    public Node getPreviousSibling() {
+      int parent = doc.parent[id];
+      if (parent == NONE) return null;
+      int previous = NONE;
+      for (int child = doc.firstChild[parent]; child != id; child = doc.nextSibling[child]) {
+        previous = child;
+      }
+      return view.node(previous);
+    }
+
+    @Override
+    public Node getNextSibling() {
+      return view.node(doc.nextSibling[id]);
+    }
+
+    @Override
+    public NamedNodeMap getAttributes() {
+      return null;
+    }
+
+    @Override
+    public Document getOwnerDocument() {
+      return view;
+    }
+
+    @Override
+    public Node insertBefore(Node newChild, Node refChild) {
+      throw readOnly();
+    }
+
+    @Override
+    public Node replaceChild(Node newChild, Node oldChild) {
+      throw readOnly();
+    }
+
+    @Override
+    public Node removeChild(Node oldChild) {
+      throw readOnly();
+    }
+
+    @Override
+    public Node appendChild(Node newChild) {
+      throw readOnly();
+    }
+
+    @Override
+    public boolean hasChildNodes() {
+      return doc.firstChild[id] != NONE;
+    }
+
+    @Override
+    public Node cloneNode(boolean deep) {
+      throw notSupported();
+    }
+
+    @Override
+    public void normalize() {}
+
+    @Override
+    public boolean isSupported(String feature, String version) {
+      return false;
+    }
+
+    @Override
+    public String getNamespaceURI() {
+      return null;
+    }
+
+    @Override
+    public String getPrefix() {
+      return null;
+    }
+
+    @Override
+    public void setPrefix(String prefix) {
+      throw readOnly();
+    }
+
+    @Override
+    public String getLocalName() {
+      return null;
+    }
+
+    @Override
+    public boolean hasAttributes() {
+      return false;
+    }
+
+    @Override
+    public String getBaseURI() {
+      return null;
+    }
+
+    @Override
+    public short compareDocumentPosition(Node other) {
+      if (other == this) return 0;
+      if (!(other instanceof NodeImpl) || ((NodeImpl) other).doc != doc) {
+        return (short)
+            (DOCUMENT_POSITION_DISCONNECTED
+                | DOCUMENT_POSITION_IMPLEMENTATION_SPECIFIC
+                | DOCUMENT_POSITION_PRECEDING);
+      }
+      int otherId = ((NodeImpl) other).id;
+      if (isAncestor(otherId, id)) {
+        return (short) (DOCUMENT_POSITION_CONTAINS | DOCUMENT_POSITION_PRECEDING);
+      }
+      if (isAncestor(id, otherId)) {
+        return (short) (DOCUMENT_POSITION_CONTAINED_BY | DOCUMENT_POSITION_FOLLOWING);
+      }
+      return (otherId < id) ? DOCUMENT_POSITION_PRECEDING : DOCUMENT_POSITION_FOLLOWING;
+    }
+
+    private boolean isAncestor(int ancestor, int node) {
+      for (int p = doc.parent[node]; p != NONE; p = doc.parent[p]) {
+        if (p == ancestor) return true;
+      }
+      return false;
+    }
+
+    @Override
+    public String getTextContent() {
+      return getNodeValue();
+    }
+
+    @Override
+    public void setTextContent(String textContent) {
+      throw readOnly();
+    }
+
+    @Override
+    public boolean isSameNode(Node other) {
+      return other == this;
+    }
+
+    // the element whose namespace declarations are in scope for this node
+    int contextElement() {
+      int parent = doc.parent[id];
+      return (parent != NONE && doc.kind[parent] == ELEMENT_NODE) ? parent : NONE;
+    }
+
+    @Override
+    public String lookupPrefix(String namespaceURI) {
+      if (namespaceURI == null) return null;
+      for (int e = contextElement(); e != NONE; e = parentElement(e)) {
+        for (int a = doc.firstAttribute(e); a != NONE; a = doc.nextSibling[a]) {
+          if ("xmlns".equals(doc.prefixes[doc.name[a]]) && namespaceURI.equals(doc.value(a))) {
+            return doc.localNames[doc.name[a]];
+          }
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public boolean isDefaultNamespace(String namespaceURI) {
+      String defaultNamespace = lookupNamespaceURI(null);
+      return (defaultNamespace == null)
+          ? namespaceURI == null
+          : defaultNamespace.equals(namespaceURI);
+    }
+
+    @Override
+    public String lookupNamespaceURI(String prefix) {
+      for (int e = contextElement(); e != NONE; e = parentElement(e)) {
+        int name = doc.name[e];
+        if (doc.namespaceURIs[name] != null && equal(prefix, doc.prefixes[name])) {
+          return doc.namespaceURIs[name];
+        }
+        for (int a = doc.firstAttribute(e); a != NONE; a = doc.nextSibling[a]) {
+          int attrName = doc.name[a];
+          if (!XMLNS_URI.equals(doc.namespaceURIs[attrName])) continue;
+          boolean declares =
+              (prefix == null)
+                  ? doc.prefixes[attrName] == null
+                  : prefix.equals(doc.localNames[attrName]) && doc.prefixes[attrName] != null;
+          if (declares) {
+            String value = doc.value(a);
+            return (value.length() == 0) ? null : value;
+          }
+        }
+      }
+      return null;
+    }
+
+    private int parentElement(int element) {
+      int parent = doc.parent[element];
+      return (parent != NONE && doc.kind[parent] == ELEMENT_NODE) ? parent : NONE;
+    }
+
+    @Override
+    public boolean isEqualNode(Node arg) {
+      throw notSupported();
+    }
+
+    @Override
+    public Object getFeature(String feature, String version) {
+      return null;
+    }
+
+    @Override
+    public Object setUserData(String key, Object data, UserDataHandler handler) {
+      return view.setUserData(this, key, data);
+    }
+
+    @Override
+    public Object getUserData(String key) {
+      return view.getUserData(this, key);
+    }
+
+    @Override
+    public String toString() {
+      return "[" + getNodeName() + ": " + getNodeValue() + "]";
+    }
+  }
+
+  private static boolean equal(String a, String b) {
+    return (a == null) ? b == null : a.equals(b);
+  }
+
+  // a node with a name from the name tables
+  abstract static class NamedNodeImpl extends NodeImpl {
+    NamedNodeImpl(DocumentView view, CompactDocument doc, int id) {
+      super(view, doc, id);
+    }
+
+    @Override
+    public String getNodeName() {
+      return doc.qualifiedNames[doc.name[id]];
+    }
+
+    @Override
+    public String getNamespaceURI() {
+      return doc.namespaceURIs[doc.name[id]];
+    }
+
+    @Override
+    public String getPrefix() {
+      return doc.prefixes[doc.name[id]];
+    }
+
+    @Override
+    public String getLocalName() {
+      return doc.localNames[doc.name[id]];
+    }
+  }
+
+  static final class DocumentView extends NodeImpl implements Document {
+    final CompactDocument document;
+    private final NodeImpl[][] pages;
+    private Map<Node, Map<String, Object>> userData;
+
+    DocumentView(CompactDocument document) {
+      super(null, document, 0);
+      this.document = document;
+      this.pages = new NodeImpl[((document.size - 1) >>> PAGE_BITS) + 1][];
+    }
+
+    NodeImpl node(int id) {
+      if (id == NONE) return null;
+      NodeImpl[] page = pages[id >>> PAGE_BITS];
+      if (page == null) {
+        page = new NodeImpl[1 << PAGE_BITS];
+        pages[id >>> PAGE_BITS] = page;
+      }
+      int slot = id & ((1 << PAGE_BITS) - 1);
+      NodeImpl node = page[slot];
+      if (node == null) {
+        node = newNode(id);
+        page[slot] = node;
+      }
+      return node;
+    }
+
+    // kept here rather than in each node, to keep the nodes small
+    Object setUserData(Node node, String key, Object data) {
+      if (userData == null) {
+        userData = new IdentityHashMap<Node, Map<String, Object>>();
+      }
+      Map<String, Object> map = userData.get(node);
+      if (map == null) {
+        map = new HashMap<String, Object>();
+        userData.put(node, map);
+      }
+      return (data == null) ? map.remove(key) : map.put(key, data);
+    }
+
+    Object getUserData(Node node, String key) {
+      Map<String, Object> map = (userData == null) ? null : userData.get(node);
+      return (map == null) ? null : map.get(key);
+    }
+
+    private NodeImpl newNode(int id) {
+      switch (document.kind[id]) {
+        case ELEMENT_NODE:
+          return new ElementImpl(this, id);
+        case ATTRIBUTE_NODE:
+          return new AttrImpl(this, id);
+        case TEXT_NODE:
+          return new TextImpl(this, id);
+        case CDATA_SECTION_NODE:
+          return new CDATASectionImpl(this, id);
+        case COMMENT_NODE:
+          return new CommentImpl(this, id);
+        case PROCESSING_INSTRUCTION_NODE:
+          return new ProcessingInstructionImpl(this, id);
+        case DOCUMENT_NODE:
+          return this;
+        default:
+          throw new IllegalStateException("unexpected node kind " + document.kind[id]);
+      }
+    }
+
+    @Override
+    public String getNodeName() {
+      return "#document";
+    }
+
+    @Override
+    public Document getOwnerDocument() {
+      return null;
+    }
+
+    @Override
+    public String getTextContent() {
+      return null;
+    }
+
+    @Override
+    int contextElement() {
+      for (int child = document.firstChild[0]; child != NONE; child = document.nextSibling[child]) {
+        if (document.kind[child] == ELEMENT_NODE) return child;
+      }
+      return NONE;
+    }
+
+    @Override
+    public DocumentType getDoctype() {
+      return null;
+    }
+
+    @Override
+    public DOMImplementation getImplementation() {
+      return null;
+    }
+
+    @Override
+    public Element getDocumentElement() {
+      return (Element) node(contextElement());
+    }
+
+    @Override
+    public Element createElement(String tagName) {
+      throw notSupported();
+    }
+
+    @Override
+    public DocumentFragment createDocumentFragment() {
+      throw notSupported();
+    }
+
+    @Override
+    public Text createTextNode(String data) {
+      throw notSupported();
+    }
+
+    @Override
+    public Comment createComment(String data) {
+      throw notSupported();
+    }
+
+    @Override
+    public CDATASection createCDATASection(String data) {
+      throw notSupported();
+    }
+
+    @Override
+    public ProcessingInstruction createProcessingInstruction(String target, String data) {
+      throw notSupported();
+    }
+
+    @Override
+    public Attr createAttribute(String name) {
+      throw notSupported();
+    }
+
+    @Override
+    public EntityReference createEntityReference(String name) {
+      throw notSupported();
+    }
+
+    @Override
+    public NodeList getElementsByTagName(String tagname) {
+      return new ElementList(this, null, tagname, false);
+    }
+
+    @Override
+    public Node importNode(Node importedNode, boolean deep) {
+      throw notSupported();
+    }
+
+    @Override
+    public Element createElementNS(String namespaceURI, String qualifiedName) {
+      throw notSupported();
+    }
+
+    @Override
+    public Attr createAttributeNS(String namespaceURI, String qualifiedName) {
+      throw notSupported();
+    }
+
+    @Override
+    public NodeList getElementsByTagNameNS(String namespaceURI, String localName) {
+      return new ElementList(this, namespaceURI, localName, true);
+    }
+
+    @Override
+    public Element getElementById(String elementId) {
+      return null;
+    }
+
+    @Override
+    public String getInputEncoding() {
+      return null;
+    }
+
+    @Override
+    public String getXmlEncoding() {
+      return null;
+    }
+
+    @Override
+    public boolean getXmlStandalone() {
+      return false;
+    }
+
+    @Override
+    public void setXmlStandalone(boolean xmlStandalone) {
+      throw readOnly();
+    }
+
+    @Override
+    public String getXmlVersion() {
+      return "1.0";
+    }
+
+    @Override
+    public void setXmlVersion(String xmlVersion) {
+      throw readOnly();
+    }
+
+    @Override
+    public boolean getStrictErrorChecking() {
+      return true;
+    }
+
+    @Override
+    public void setStrictErrorChecking(boolean strictErrorChecking) {}
+
+    @Override
+    public String getDocumentURI() {
+      return null;
+    }
+
+    @Override
+    public void setDocumentURI(String documentURI) {
+      throw readOnly();
+    }
+
+    @Override
+    public Node adoptNode(Node source) {
+      throw notSupported();
+    }
+
+    @Override
+    public DOMConfiguration getDomConfig() {
+      return null;
+    }
+
+    @Override
+    public void normalizeDocument() {}
+
+    @Override
+    public Node renameNode(Node n, String namespaceURI, String qualifiedName) {
+      throw readOnly();
+    }
+  }
+
+  static final class ElementImpl extends NamedNodeImpl implements Element {
+    ElementImpl(DocumentView view, int id) {
+      super(view, view.document, id);
+    }
+
+    @Override
+    int contextElement() {
+      return id;
+    }
+
+    @Override
+    public String getTagName() {
+      return getNodeName();
+    }
+
+    @Override
+    public NamedNodeMap getAttributes() {
+      return new AttributeMap(this);
+    }
+
+    @Override
+    public boolean hasAttributes() {
+      return doc.firstAttribute(id) != NONE;
+    }
+
+    @Override
+    public String getTextContent() {
+      StringBuilder sb = new StringBuilder();
+      doc.appendText(id, sb);
+      return sb.toString();
+    }
+
+    private int findAttribute(String qualifiedName) {
+      for (int a = doc.firstAttribute(id); a != NONE; a = doc.nextSibling[a]) {
+        if (doc.qualifiedNames[doc.name[a]].equals(qualifiedName)) return a;
+      }
+      return NONE;
+    }
+
+    private int findAttribute(String namespaceURI, String localName) {
+      if (namespaceURI != null && namespaceURI.length() == 0) {
+        namespaceURI = null;
+      }
+      for (int a = doc.firstAttribute(id); a != NONE; a = doc.nextSibling[a]) {
+        int name = doc.name[a];
+        if (doc.localNames[name].equals(localName)
+            && equal(doc.namespaceURIs[name], namespaceURI)) {
+          return a;
+        }
+      }
+      return NONE;
+    }
+
+    @Override
+    public String getAttribute(String name) {
+      int a = findAttribute(name);
+      return (a == NONE) ? "" : doc.value(a);
+    }
+
+    @Override
+    public void setAttribute(String name, String value) {
+      throw readOnly();
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+      throw readOnly();
+    }
+
+    @Override
+    public Attr getAttributeNode(String name) {
+      return (Attr) view.node(findAttribute(name));
+    }
+
+    @Override
+    public Attr setAttributeNode(Attr newAttr) {
+      throw readOnly();
+    }
+
+    @Override
+    public Attr removeAttributeNode(Attr oldAttr) {
+      throw readOnly();
+    }
+
+    @Override
+    public NodeList getElementsByTagName(String name) {
+      return new ElementList(this, null, name, false);
+    }
+
+    @Override
+    public String getAttributeNS(String namespaceURI, String localName) {
+      int a = findAttribute(namespaceURI, localName);
+      return (a == NONE) ? "" : doc.value(a);
+    }
+
+    @Override
+    public void setAttributeNS(String namespaceURI, String qualifiedName, String value) {
+      throw readOnly();
+    }
+
+    @Override
+    public void removeAttributeNS(String namespaceURI, String localName) {
+      throw readOnly();
+    }
+
+    @Override
+    public Attr getAttributeNodeNS(String namespaceURI, String localName) {
+      return (Attr) view.node(findAttribute(namespaceURI, localName));
+    }
+
+    @Override
+    public Attr setAttributeNodeNS(Attr newAttr) {
+      throw readOnly();
+    }
+
+    @Override
+    public NodeList getElementsByTagNameNS(String namespaceURI, String localName) {
+      return new ElementList(this, namespaceURI, localName, true);
+    }
+
+    @Override
+    public boolean hasAttribute(String name) {
+      return findAttribute(name) != NONE;
+    }
+
+    @Override
+    public boolean hasAttributeNS(String namespaceURI, String localName) {
+      return findAttribute(namespaceURI, localName) != NONE;
+    }
+
+    @Override
+    public TypeInfo getSchemaTypeInfo() {
+      return null;
+    }
+
+    @Override
+    public void setIdAttribute(String name, boolean isId) {
+      throw readOnly();
+    }
+
+    @Override
+    public void setIdAttributeNS(String namespaceURI, String localName, boolean isId) {
+      throw readOnly();
+    }
+
+    @Override
+    public void setIdAttributeNode(Attr idAttr, boolean isId) {
+      throw readOnly();
+    }
+  }
+
+  static final class AttrImpl extends NamedNodeImpl implements Attr {
+    AttrImpl(DocumentView view, int id) {
+      super(view, view.document, id);
+    }
+
+    @Override
+    public Node getParentNode() {
+      return null;
+    }
+
+    @Override
+    public Node getPreviousSibling() {
+      return null;
+    }
+
+    @Override
+    public Node getNextSibling() {
+      return null;
+    }
+
+    @Override
+    public String getNodeValue() {
+      return doc.value(id);
+    }
+
+    @Override
+    public String getName() {
+      return getNodeName();
+    }
+
+    @Override
+    public boolean getSpecified() {
+      return true;
+    }
+
+    @Override
+    public String getValue() {
+      return getNodeValue();
+    }
+
+    @Override
+    public void setValue(String value) {
+      throw readOnly();
+    }
+
+    @Override
+    public Element getOwnerElement() {
+      return (Element) view.node(doc.parent[id]);
+    }
+
+    @Override
+    public TypeInfo getSchemaTypeInfo() {
+      return null;
+    }
+
+    @Override
+    public boolean isId() {
+      return false;
+    }
+  }
+
+  abstract static class CharacterDataImpl extends NodeImpl {
+    CharacterDataImpl(DocumentView view, int id) {
+      super(view, view.document, id);
+    }
+
+    @Override
+    public String getNodeValue() {
+      return doc.value(id);
+    }
+
+    public String getData() {
+      return getNodeValue();
+    }
+
+    public void setData(String data) {
+      throw readOnly();
+    }
+
+    public int getLength() {
+      return doc.valueLength[id];
+    }
+
+    public String substringData(int offset, int count) {
+      int length = doc.valueLength[id];
+      if (offset < 0 || offset > length || count < 0) {
+        throw new DOMException(DOMException.INDEX_SIZE_ERR, "index out of range");
+      }
+      return new String(doc.chars, doc.valueStart[id] + offset, Math.min(length - offset, count));
+    }
+
+    public void appendData(String arg) {
+      throw readOnly();
+    }
+
+    public void insertData(int offset, String arg) {
+      throw readOnly();
+    }
+
+    public void deleteData(int offset, int count) {
+      throw readOnly();
+    }
+
+    public void replaceData(int offset, int count, String arg) {
+      throw readOnly();
+    }
+  }
+
+  static class TextImpl extends CharacterDataImpl implements Text {
+    TextImpl(DocumentView view, int id) {
+      super(view, id);
+    }
+
+    @Override
+    public String getNodeName() {
+      return "#text";
+    }
+
+    @Override
+    public Text splitText(int offset) {
+      throw readOnly();
+    }
+
+    @Override
+    public boolean isElementContentWhitespace() {
+      return false;
+    }
+
+    @Override
+    public String getWholeText() {
+      // the run of text and CDATA siblings that this node belongs to
+      StringBuilder sb = new StringBuilder();
+      boolean found = false;
+      for (int child = doc.firstChild[doc.parent[id]];
+          child != NONE;
+          child = doc.nextSibling[child]) {
+        byte kind = doc.kind[child];
+        if (kind == TEXT_NODE || kind == CDATA_SECTION_NODE) {
+          sb.append(doc.chars, doc.valueStart[child], doc.valueLength[child]);
+          found = found || child == id;
+        } else if (found) {
+          break;
+        } else {
+          sb.setLength(0);
+        }
+      }
+      return sb.toString();
+    }
+
+    @Override
+    public Text replaceWholeText(String content) {
+      throw readOnly();
+    }
+  }
+
+  static final class CDATASectionImpl extends TextImpl implements CDATASection {
+    CDATASectionImpl(DocumentView view, int id) {
+      super(view, id);
+    }
+
+    @Override
+    public String getNodeName() {
+      return "#cdata-section";
+    }
+  }
+
+  static final class CommentImpl extends CharacterDataImpl implements Comment {
+    CommentImpl(DocumentView view, int id) {
+      super(view, id);
+    }
+
+    @Override
+    public String getNodeName() {
+      return "#comment";
+    }
+  }
+
+  static final class ProcessingInstructionImpl extends CharacterDataImpl
+      implements ProcessingInstruction {
+    ProcessingInstructionImpl(DocumentView view, int id) {
+      super(view, id);
+    }
+
+    @Override
+    public String getNodeName() {
+      return doc.qualifiedNames[doc.name[id]];
+    }
+
+    @Override
+    public String getTarget() {
+      return getNodeName();
+    }
+  }
+
+  static final class ChildList implements NodeList {
+    private final NodeImpl parent;
+    // the last item looked up, so that a loop over the list does not start over every time
+    private int cursorIndex = -1;
+    private int cursorNode = NONE;
+
+    ChildList(NodeImpl parent) {
+      this.parent = parent;
+    }
+
+    @Override
+    public Node item(int index) {
+      if (index < 0) return null;
+      CompactDocument doc = parent.doc;
+      int i = 0;
+      int child = doc.firstChild[parent.id];
+      if (cursorNode != NONE && cursorIndex <= index) {
+        i = cursorIndex;
+        child = cursorNode;
+      }
+      for (; child != NONE && i < index; i++) {
+        child = doc.nextSibling[child];
+      }
+      if (child != NONE) {
+        cursorIndex = i;
+        cursorNode = child;
+      }
+      return parent.view.node(child);
+    }
+
+    @Override
+    public int getLength() {
+      int length = 0;
+      CompactDocument doc = parent.doc;
+      for (int child = doc.firstChild[parent.id]; child != NONE; child = doc.nextSibling[child]) {
+        length++;
+      }
+      return length;
+    }
+  }
+
+  static final class ElementList implements NodeList {
+    private final NodeImpl root;
+    private int[] elements = new int[8];
+    private int length;
+
+    // "*" matches any name, and with namespaces, any namespace
+    ElementList(NodeImpl root, String namespaceURI, String name, boolean useNamespaces) {
+      this.root = root;
+      CompactDocument doc = root.doc;
+      if (namespaceURI != null && namespaceURI.length() == 0) {
+        namespaceURI = null;
+      }
+      boolean anyName = "*".equals(name);
+      boolean anyNamespace = "*".equals(namespaceURI);
+      // the descendants of a node are the nodes that follow it, up to its next sibling, or the
+      // next sibling of its nearest ancestor that has one
+      int end = doc.size;
+      for (int n = root.id; n != NONE; n = doc.parent[n]) {
+        if (doc.nextSibling[n] != NONE) {
+          end = doc.nextSibling[n];
+          break;
+        }
+      }
+      for (int n = root.id + 1; n < end; n++) {
+        if (doc.kind[n] != Node.ELEMENT_NODE) continue;
+        int nameId = doc.name[n];
+        boolean matches =
+            useNamespaces
+                ? (anyName || doc.localNames[nameId].equals(name))
+                    && (anyNamespace || equal(doc.namespaceURIs[nameId], namespaceURI))
+                : anyName || doc.qualifiedNames[nameId].equals(name);
+        if (matches) {
+          if (length == elements.length) {
+            elements = Arrays.copyOf(elements, length * 2);
+          }
+          elements[length++] = n;
+        }
+      }
+    }
+
+    @Override
+    public Node item(int index) {
+      return (index < 0 || index >= length) ? null : root.view.node(elements[index]);
+    }
+
+    @Override
+    public int getLength() {
+      return length;
+    }
+  }
+
+  static final class AttributeMap implements NamedNodeMap {
+    private final ElementImpl element;
+    private final int length;
+
+    AttributeMap(ElementImpl element) {
+      this.element = element;
+      int count = 0;
+      CompactDocument doc = element.doc;
+      for (int a = doc.firstAttribute(element.id); a != NONE; a = doc.nextSibling[a]) {
+        count++;
+      }
+      this.length = count;
+    }
+
+    @Override
+    public Node getNamedItem(String name) {
+      return element.getAttributeNode(name);
+    }
+
+    @Override
+    public Node setNamedItem(Node arg) {
+      throw readOnly();
+    }
+
+    @Override
+    public Node removeNamedItem(String name) {
+      throw readOnly();
+    }
+
+    @Override
+    public Node item(int index) {
+      // the attributes of an element are numbered consecutively after it
+      return (index < 0 || index >= length) ? null : element.view.node(element.id + 1 + index);
+    }
+
+    @Override
+    public int getLength() {
+      return length;
+    }
+
+    @Override
+    public Node getNamedItemNS(String namespaceURI, String localName) {
+      return element.getAttributeNodeNS(namespaceURI, localName);
+    }
+
+    @Override
+    public Node setNamedItemNS(Node arg) {
+      throw readOnly();
+    }
+
+    @Override
+    public Node removeNamedItemNS(String namespaceURI, String localName) {
+      throw readOnly();
+    }
+  }
+}
@@ -0,0 +1,90 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.util;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes which parts of a document a set of xpaths can possibly select, so that the parser
+ * can skip the rest while building the DOM.
+ *
+ * <p>An element is kept if it can match one of the element steps of an xpath, judged by name
+ * alone, so that positional and attribute predicates see all of the same siblings they would
+ * see in the full document. The whole subtree is kept below an element that an xpath selects,
+ * below an element whose text() nodes an xpath selects, and below an element that is followed
+ * by a descendant (//) step. The root element is always kept. Everything else is dropped,
+ * including the text of elements that are only on the way to a match.
+ *
+ * <p>Projection is only attempted when every xpath is in the {@link SimplePath} subset and
+ * starts with a child step; compile() returns null otherwise, and the document should be
+ * parsed in full.
+ */
+public final class DocumentProjection {
+
+  final SimplePath[] paths;
+
+  private DocumentProjection(SimplePath[] paths) {
+    this.paths = paths;
+  }
+
+  public static DocumentProjection compile(List<String> xpaths, Map<String, String> namespaces) {
+    if (xpaths.isEmpty()) {
+      return null;
+    }
+    SimplePath[] paths = new SimplePath[xpaths.size()];
+    for (int i = 0; i < paths.length; i++) {
+      paths[i] = SimplePath.parse(xpaths.get(i), namespaces);
+      if (paths[i] == null || paths[i].steps.length > 62 || paths[i].steps[0].descendant) {
+        return null;
+      }
+    }
+    return new DocumentProjection(paths);
+  }
+
+  /** Keep the element; its children are decided one by one. */
+  static final int KEEP = 1;
+  /** Keep the element and everything below it. */
+  static final int KEEP_ALL = 2;
+  /** Drop the element and everything below it. */
+  static final int DROP = 0;
+
+  /**
+   * Decides what to do with an element whose parent matched the given steps, and records in
+   * matched the steps the element itself matches, by name.
+   */
+  int decide(long[] parentMatched, String namespaceURI, String localName, long[] matched) {
+    int decision = DROP;
+    for (int p = 0; p < paths.length; p++) {
+      SimplePath path = paths[p];
+      long bits = 0L;
+      for (int s = 0; s < path.steps.length; s++) {
+        if ((parentMatched[p] & (1L << s)) != 0
+            && path.steps[s].test.matches(namespaceURI, localName)) {
+          bits |= 1L << (s + 1);
+          boolean last = (s == path.steps.length - 1);
+          if ((last && path.target != SimplePath.ATTRIBUTE)
+              || (!last && path.steps[s + 1].descendant)) {
+            decision = KEEP_ALL;
+          } else if (decision == DROP) {
+            decision = KEEP;
+          }
+        }
+      }
+      matched[p] = bits;
+    }
+    return decision;
+  }
+}
@@ -0,0 +1,312 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+/**
+ * A compiled {@link SimplePath} made only of child steps, that is evaluated against a DOM
+ * Document by walking getFirstChild and getNextSibling, rather than through the JAXP
+ * interpreter.
+ *
+ * <p>The first step may instead be a descendant step with a name, like //p:number, which is
+ * answered from the {@link ElementIndex} of the document, when one has been enabled.
+ *
+ * <p>The results are the nodes JAXP would return, in the same order: as in the XPath data
+ * model, a run of adjacent Text and CDATASection nodes is one text() node, returned as the
+ * first node of the run, and namespace declarations are not attributes. For anything the walk
+ * does not handle - an item that is not a Document, an entity reference, or a node without a
+ * local name, as built by a parser that is not namespace aware - the JAXP expression compiled
+ * alongside it is used instead.
+ */
+final class DomPath implements XPathExpression {
+  private static final String XMLNS_URI = "http://www.w3.org/2000/xmlns/";
+
+  private final SimplePath path;
+  private final XPathExpression interpreted;
+
+  private DomPath(SimplePath path, XPathExpression interpreted) {
+    this.path = path;
+    this.interpreted = interpreted;
+  }
+
+  /**
+   * Returns the direct form of the xpath, or null if it is not made of child steps, after an
+   * optional first descendant step with a name.
+   */
+  static DomPath compile(
+      String xpath, Map<String, String> namespaces, XPathExpression interpreted) {
+    SimplePath path = SimplePath.parse(xpath, namespaces);
+    if (path == null) {
+      return null;
+    }
+    for (int s = 0; s < path.steps.length; s++) {
+      SimplePath.Step step = path.steps[s];
+      if (step.descendant && (s > 0 || step.test.isWildcard())) return null;
+    }
+    return new DomPath(path, interpreted);
+  }
+
+  public Object evaluate(Object item, QName returnType) throws XPathExpressionException {
+    if (!(item instanceof Document) || !isSupported(returnType)) {
+      return interpreted.evaluate(item, returnType);
+    }
+    List<Node> nodes = new ArrayList<Node>();
+    int limit = returnType.equals(XPathConstants.NODESET) ? Integer.MAX_VALUE : 1;
+    boolean selected;
+    if (path.steps[0].descendant) {
+      ElementIndex index = ElementIndex.of((Document) item);
+      List<Node> candidates =
+          (index == null)
+              ? null
+              : index.get(path.steps[0].test.namespaceURI, path.steps[0].test.localName);
+      selected = (candidates != null) && selectIndexed(candidates, limit, nodes);
+    } else {
+      selected = select((Node) item, 0, limit, nodes);
+    }
+    if (!selected) {
+      return interpreted.evaluate(item, returnType);
+    }
+    if (returnType.equals(XPathConstants.NODESET)) {
+      return new Nodes(nodes);
+    }
+    if (returnType.equals(XPathConstants.BOOLEAN)) {
+      return !nodes.isEmpty();
+    }
+    Node first = nodes.isEmpty() ? null : nodes.get(0);
+    if (returnType.equals(XPathConstants.NODE)) {
+      return first;
+    }
+    String value = (first == null) ? "" : stringValue(first);
+    if (returnType.equals(XPathConstants.NUMBER)) {
+      return (first == null) ? Double.NaN : toNumber(value);
+    }
+    return value;
+  }
+
+  public String evaluate(Object item) throws XPathExpressionException {
+    return (String) evaluate(item, XPathConstants.STRING);
+  }
+
+  public Object evaluate(InputSource source, QName returnType) throws XPathExpressionException {
+    return interpreted.evaluate(source, returnType);
+  }
+
+  public String evaluate(InputSource source) throws XPathExpressionException {
+    return interpreted.evaluate(source);
+  }
+
+  private static boolean isSupported(QName returnType) {
+    return XPathConstants.NODESET.equals(returnType)
+        || XPathConstants.NODE.equals(returnType)
+        || XPathConstants.STRING.equals(returnType)
+        || XPathConstants.NUMBER.equals(returnType)
+        || XPathConstants.BOOLEAN.equals(returnType);
+  }
+
+  // Adds the nodes that steps s and on select from the node, in document order, until there
+  // are limit of them. Returns false if the walk finds something it does not handle.
+  private boolean select(Node node, int s, int limit, List<Node> out) {
+    if (s == path.steps.length) {
+      return selectTarget(node, limit, out);
+    }
+    SimplePath.Step step = path.steps[s];
+    int[] counts = (step.predicates.length == 0) ? null : new int[step.predicates.length];
+    for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+      short type = child.getNodeType();
+      if (type == Node.ENTITY_REFERENCE_NODE) return false;
+      if (type != Node.ELEMENT_NODE) continue;
+      String localName = child.getLocalName();
+      if (localName == null) return false;
+      if (!step.test.matches(child.getNamespaceURI(), localName)) continue;
+      int passed = passes(step.predicates, counts, child);
+      if (passed < 0) return true;
+      if (passed == 0) continue;
+      if (!select(child, s + 1, limit, out)) return false;
+      if (out.size() >= limit) return true;
+    }
+    return true;
+  }
+
+  // As select(), for a first descendant step, given every element with its name. The elements
+  // are in document order, so the siblings of any one parent are seen in order.
+  private boolean selectIndexed(List<Node> candidates, int limit, List<Node> out) {
+    SimplePath.Step step = path.steps[0];
+    boolean positional = step.hasPosition();
+    Map<Node, int[]> counts = positional ? new IdentityHashMap<Node, int[]>() : null;
+    // When one candidate is below another, what the later steps select below the two can
+    // interleave. That is left to the interpreter, and checked before any result is used.
+    boolean interleaves = path.steps.length > 1 || path.target == SimplePath.TEXT;
+    Set<Node> passing =
+        interleaves ? Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>()) : null;
+    int selectLimit = interleaves ? Integer.MAX_VALUE : limit;
+    for (Node candidate : candidates) {
+      if (step.predicates.length > 0) {
+        int[] siblingCounts = null;
+        if (positional) {
+          Node parent = candidate.getParentNode();
+          siblingCounts = counts.get(parent);
+          if (siblingCounts == null) {
+            siblingCounts = new int[step.predicates.length];
+            counts.put(parent, siblingCounts);
+          }
+        }
+        if (passes(step.predicates, siblingCounts, candidate) <= 0) continue;
+      }
+      if (interleaves) {
+        for (Node n = candidate.getParentNode(); n != null; n = n.getParentNode()) {
+          if (passing.contains(n)) return false;
+        }
+        passing.add(candidate);
+      }
+      if (!select(candidate, 1, selectLimit, out)) return false;
+      if (out.size() >= selectLimit) return true;
+    }
+    return true;
+  }
+
+  // 1 if the element passes every predicate, 0 if it does not, and -1 if no later sibling can
+  // pass either, because a positional predicate has gone past its position.
+  private static int passes(SimplePath.Predicate[] predicates, int[] counts, Node element) {
+    for (int k = 0; k < predicates.length; k++) {
+      SimplePath.Predicate predicate = predicates[k];
+      if (predicate.position > 0) {
+        int n = ++counts[k];
+        if (n < predicate.position) return 0;
+        if (n > predicate.position) return -1;
+      } else if (!hasAttribute(element, predicate.attribute, predicate.value)) {
+        return 0;
+      }
+    }
+    return 1;
+  }
+
+  private static boolean hasAttribute(Node element, SimplePath.NameTest test, String value) {
+    NamedNodeMap attributes = element.getAttributes();
+    for (int i = 0; i < attributes.getLength(); i++) {
+      Node attr = attributes.item(i);
+      String namespaceURI = attr.getNamespaceURI();
+      if (!XMLNS_URI.equals(namespaceURI)
+          && test.matches(namespaceURI, attr.getLocalName())
+          && value.equals(attr.getNodeValue())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean selectTarget(Node element, int limit, List<Node> out) {
+    switch (path.target) {
+      case SimplePath.ATTRIBUTE:
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength() && out.size() < limit; i++) {
+          Node attr = attributes.item(i);
+          String localName = attr.getLocalName();
+          if (localName == null) return false;
+          String namespaceURI = attr.getNamespaceURI();
+          if (!XMLNS_URI.equals(namespaceURI)
+              && path.attributeTest.matches(namespaceURI, localName)) {
+            out.add(attr);
+          }
+        }
+        return true;
+      case SimplePath.TEXT:
+        boolean inRun = false;
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+          short type = child.getNodeType();
+          if (type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE) {
+            if (!inRun) {
+              if (out.size() >= limit) return true;
+              out.add(child);
+              inRun = true;
+            }
+          } else if (type == Node.ENTITY_REFERENCE_NODE) {
+            return false;
+          } else {
+            inRun = false;
+          }
+        }
+        return true;
+      default:
+        out.add(element);
+        return true;
+    }
+  }
+
+  private static String stringValue(Node node) {
+    switch (node.getNodeType()) {
+      case Node.ELEMENT_NODE:
+        return node.getTextContent();
+      case Node.ATTRIBUTE_NODE:
+        return node.getNodeValue();
+      default:
+        // the whole run of text that the node starts
+        String value = node.getNodeValue();
+        StringBuilder sb = null;
+        for (Node next = node.getNextSibling(); next != null; next = next.getNextSibling()) {
+          short type = next.getNodeType();
+          if (type != Node.TEXT_NODE && type != Node.CDATA_SECTION_NODE) break;
+          if (sb == null) sb = new StringBuilder(value);
+          sb.append(next.getNodeValue());
+        }
+        return (sb == null) ? value : sb.toString();
+    }
+  }
+
+  // As the XPath number() function: optional whitespace around an optional minus sign and
+  // digits with an optional decimal point; anything else is NaN.
+  static double toNumber(String value) {
+    String s = value.trim();
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c != '-' && c != '.' && (c < '0' || c > '9')) return Double.NaN;
+    }
+    try {
+      return Double.parseDouble(s);
+    } catch (NumberFormatException exc1) {
+      return Double.NaN;
+    }
+  }
+
+  private static final class Nodes implements NodeList {
+    private final List<Node> nodes;
+
+    Nodes(List<Node> nodes) {
+      this.nodes = nodes;
+    }
+
+    public Node item(int index) {
+      return (index >= 0 && index < nodes.size()) ? nodes.get(index) : null;
+    }
+
+    public int getLength() {
+      return nodes.size();
+    }
+  }
+}
@@ -0,0 +1,125 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * The elements of a document by expanded name, in document order, so that an xpath starting
+ * with a descendant step, like //p:number, can find them without walking the whole tree again.
+ *
+ * <p>An index is attached to a document with {@link #enable(Document)}, and built in one pass
+ * the first time such an xpath is evaluated against it. It is not updated when the document
+ * changes, so it should be removed with {@link #disable(Document)} before that, and once the
+ * document is no longer evaluated. Like the DOM, it is not safe for use by two threads at once.
+ */
+public final class ElementIndex {
+  private static final String KEY = ElementIndex.class.getName();
+
+  private final Document document;
+  // namespace URI, or "" for none, to local name to elements
+  private Map<String, Map<String, List<Node>>> elements;
+  private boolean usable;
+
+  private ElementIndex(Document document) {
+    this.document = document;
+  }
+
+  /** Attaches an index, not yet built, to the document. */
+  public static void enable(Document document) {
+    document.setUserData(KEY, new ElementIndex(document), null);
+  }
+
+  /** Removes the index from the document, if there is one. */
+  public static void disable(Document document) {
+    document.setUserData(KEY, null, null);
+  }
+
+  /** Returns the index attached to the document, or null if there is none. */
+  static ElementIndex of(Document document) {
+    Object index = document.getUserData(KEY);
+    return (index instanceof ElementIndex) ? (ElementIndex) index : null;
+  }
+
+  /**
+   * Returns the elements with the name, in document order, or null if the document holds
+   * nodes the index does not model: entity references, or nodes without a local name, as built
+   * by a parser that is not namespace aware.
+   */
+  List<Node> get(String namespaceURI, String localName) {
+    if (elements == null) {
+      build();
+    }
+    if (!usable) {
+      return null;
+    }
+    Map<String, List<Node>> byLocalName =
+        elements.get((namespaceURI == null) ? "" : namespaceURI);
+    List<Node> found = (byLocalName == null) ? null : byLocalName.get(localName);
+    return (found == null) ? Collections.<Node>emptyList() : found;
+  }
+
+  private void build() {
+    elements = new HashMap<String, Map<String, List<Node>>>();
+    usable = true;
+    Node node = document.getFirstChild();
+    while (node != null) {
+      short type = node.getNodeType();
+      if (type == Node.ENTITY_REFERENCE_NODE) {
+        usable = false;
+        return;
+      }
+      if (type == Node.ELEMENT_NODE) {
+        String localName = node.getLocalName();
+        if (localName == null) {
+          usable = false;
+          return;
+        }
+        String namespaceURI = node.getNamespaceURI();
+        if (namespaceURI == null) namespaceURI = "";
+        Map<String, List<Node>> byLocalName = elements.get(namespaceURI);
+        if (byLocalName == null) {
+          byLocalName = new HashMap<String, List<Node>>();
+          elements.put(namespaceURI, byLocalName);
+        }
+        List<Node> found = byLocalName.get(localName);
+        if (found == null) {
+          found = new ArrayList<Node>();
+          byLocalName.put(localName, found);
+        }
+        found.add(node);
+        Node child = node.getFirstChild();
+        if (child != null) {
+          node = child;
+          continue;
+        }
+      }
+      // the next node in document order, below the document
+      while (node != null && node.getNextSibling() == null) {
+        node = node.getParentNode();
+        if (node == document) {
+          return;
+        }
+      }
+      node = (node == null) ? null : node.getNextSibling();
+    }
+  }
+}
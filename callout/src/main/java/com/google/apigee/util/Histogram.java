@@ -0,0 +1,122 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.util;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * A histogram of non-negative values, such as durations in nanoseconds or sizes in bytes, that
+ * many threads can record into without contention.
+ *
+ * <p>Values fall into buckets by powers of two: bucket 0 holds 0, and bucket i holds values from
+ * 2^(i-1) up to 2^i - 1. Percentiles are therefore approximate, reported as the upper bound of
+ * the bucket, within a factor of two of the true value.
+ */
+public final class Histogram {
+  private static final int BUCKETS = 64;
+
+  private static final LongBinaryOperator MAX =
+      new LongBinaryOperator() {
+        public long applyAsLong(long left, long right) {
+          return Math.max(left, right);
+        }
+      };
+
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(MAX, 0L);
+
+  public Histogram() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value))].increment();
+    count.increment();
+    sum.add(value);
+    max.accumulate(value);
+  }
+
+  /**
+   * Returns a copy of the current counts. Values recorded while the copy is taken may be partly
+   * included.
+   */
+  public Snapshot snapshot() {
+    long[] counts = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets[i].sum();
+    }
+    return new Snapshot(counts, count.sum(), sum.sum(), max.get());
+  }
+
+  public static final class Snapshot {
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    private Snapshot(long[] counts, long count, long sum, long max) {
+      this.counts = counts;
+      this.count = count;
+      this.sum = sum;
+      this.max = max;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getSum() {
+      return sum;
+    }
+
+    public long getMax() {
+      return max;
+    }
+
+    public long getMean() {
+      return (count == 0) ? 0 : sum / count;
+    }
+
+    /** Returns the upper bound of the bucket that holds the given percentile, 0 to 100. */
+    public long getPercentile(double percentile) {
+      long total = 0;
+      for (long c : counts) {
+        total += c;
+      }
+      if (total == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(total * percentile / 100.0);
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= Math.max(1, rank)) {
+          long upper = (i == 0) ? 0 : (i >= 63) ? Long.MAX_VALUE : (1L << i) - 1;
+          return Math.min(upper, max);
+        }
+      }
+      return max;
+    }
+  }
+}
@@ -0,0 +1,168 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.util;
+
+import java.io.IOException;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/** A SAX handler that checks {@link ParseLimits} on each event before passing it on. */
+final class LimitingHandler<H extends DefaultHandler & LexicalHandler> extends DefaultHandler
+    implements LexicalHandler {
+  private final H handler;
+  private final ParseLimits.Checker checker;
+  private final boolean countAttributes;
+
+  LimitingHandler(H handler, ParseLimits limits) {
+    this.handler = handler;
+    this.checker = limits.newChecker();
+    this.countAttributes = limits.getMaxAttributes() > 0;
+  }
+
+  // the attributes include namespace declarations, which are not counted
+  private static int countAttributes(Attributes attributes) {
+    int n = 0;
+    for (int i = 0; i < attributes.getLength(); i++) {
+      String qName = attributes.getQName(i);
+      if (!qName.startsWith("xmlns") || (qName.length() > 5 && qName.charAt(5) != ':')) {
+        n++;
+      }
+    }
+    return n;
+  }
+
+  @Override
+  public void startElement(String uri, String localName, String qName, Attributes attributes)
+      throws SAXException {
+    checker.startElement(countAttributes ? countAttributes(attributes) : 0);
+    handler.startElement(uri, localName, qName, attributes);
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qName) throws SAXException {
+    checker.endElement();
+    handler.endElement(uri, localName, qName);
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length) throws SAXException {
+    checker.text(length);
+    handler.characters(ch, start, length);
+  }
+
+  @Override
+  public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+    checker.text(length);
+    handler.ignorableWhitespace(ch, start, length);
+  }
+
+  @Override
+  public void processingInstruction(String target, String data) throws SAXException {
+    checker.markup();
+    handler.processingInstruction(target, data);
+  }
+
+  @Override
+  public void comment(char[] ch, int start, int length) throws SAXException {
+    checker.markup();
+    handler.comment(ch, start, length);
+  }
+
+  @Override
+  public void setDocumentLocator(Locator locator) {
+    handler.setDocumentLocator(locator);
+  }
+
+  @Override
+  public void startDocument() throws SAXException {
+    handler.startDocument();
+  }
+
+  @Override
+  public void endDocument() throws SAXException {
+    handler.endDocument();
+  }
+
+  @Override
+  public void startPrefixMapping(String prefix, String uri) throws SAXException {
+    handler.startPrefixMapping(prefix, uri);
+  }
+
+  @Override
+  public void endPrefixMapping(String prefix) throws SAXException {
+    handler.endPrefixMapping(prefix);
+  }
+
+  @Override
+  public void skippedEntity(String name) throws SAXException {
+    handler.skippedEntity(name);
+  }
+
+  @Override
+  public InputSource resolveEntity(String publicId, String systemId)
+      throws IOException, SAXException {
+    return handler.resolveEntity(publicId, systemId);
+  }
+
+  @Override
+  public void warning(SAXParseException e) throws SAXException {
+    handler.warning(e);
+  }
+
+  @Override
+  public void error(SAXParseException e) throws SAXException {
+    handler.error(e);
+  }
+
+  @Override
+  public void fatalError(SAXParseException e) throws SAXException {
+    handler.fatalError(e);
+  }
+
+  @Override
+  public void startCDATA() throws SAXException {
+    handler.startCDATA();
+  }
+
+  @Override
+  public void endCDATA() throws SAXException {
+    handler.endCDATA();
+  }
+
+  @Override
+  public void startDTD(String name, String publicId, String systemId) throws SAXException {
+    handler.startDTD(name, publicId, systemId);
+  }
+
+  @Override
+  public void endDTD() throws SAXException {
+    handler.endDTD();
+  }
+
+  @Override
+  public void startEntity(String name) throws SAXException {
+    handler.startEntity(name);
+  }
+
+  @Override
+  public void endEntity(String name) throws SAXException {
+    handler.endEntity(name);
+  }
+}
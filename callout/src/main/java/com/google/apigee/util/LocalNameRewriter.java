@@ -0,0 +1,191 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.util;
+
+/**
+ * Rewrites the element name tests of an xpath that have no prefix, eg {@code a} in {@code
+ * /a/b:c}, to {@code *[local-name()='a']}, so that they match elements with that local name in
+ * any namespace. Attribute names, function names, axis names and the operator names are left
+ * as they are, following the rules for telling them apart in section 3.7 of XPath 1.0.
+ */
+final class LocalNameRewriter {
+  private final String xpath;
+  private final StringBuilder out;
+  private int pos;
+  // true when the previous token is one after which a name is a name test, not an operator
+  private boolean operandNext = true;
+  private boolean attributeNext; // after @, attribute:: or namespace::
+
+  private LocalNameRewriter(String xpath) {
+    this.xpath = xpath;
+    this.out = new StringBuilder(xpath.length() + 32);
+  }
+
+  /** Returns the rewritten xpath, or the same string if there is nothing to rewrite. */
+  static String rewrite(String xpath) {
+    LocalNameRewriter rewriter = new LocalNameRewriter(xpath);
+    return rewriter.run() ? rewriter.out.toString() : xpath;
+  }
+
+  private boolean run() {
+    boolean changed = false;
+    int length = xpath.length();
+    while (pos < length) {
+      char c = xpath.charAt(pos);
+      if (Character.isWhitespace(c)) {
+        out.append(c);
+        pos++;
+      } else if (c == '\'' || c == '"') {
+        int end = xpath.indexOf(c, pos + 1);
+        end = (end < 0) ? length : end + 1;
+        out.append(xpath, pos, end);
+        pos = end;
+        token(false);
+      } else if (isDigit(c) || (c == '.' && pos + 1 < length && isDigit(xpath.charAt(pos + 1)))) {
+        int end = pos + 1;
+        while (end < length && (isDigit(xpath.charAt(end)) || xpath.charAt(end) == '.')) end++;
+        out.append(xpath, pos, end);
+        pos = end;
+        token(false);
+      } else if (c == '$') {
+        int end = pos + 1;
+        while (end < length && (isNameChar(xpath.charAt(end)) || xpath.charAt(end) == ':')) end++;
+        out.append(xpath, pos, end);
+        pos = end;
+        token(false);
+      } else if (isNameStart(c)) {
+        changed |= name();
+      } else {
+        punctuation(c);
+      }
+    }
+    return changed;
+  }
+
+  private void token(boolean operand) {
+    operandNext = operand;
+    attributeNext = false;
+  }
+
+  private void punctuation(char c) {
+    int length = xpath.length();
+    char next = (pos + 1 < length) ? xpath.charAt(pos + 1) : 0;
+    int size = 1;
+    boolean operand;
+    switch (c) {
+      case '@':
+        out.append(c);
+        pos++;
+        operandNext = true;
+        attributeNext = true;
+        return;
+      case ':':
+        // '::' after an axis name is handled with the name
+        size = (next == ':') ? 2 : 1;
+        operand = true;
+        break;
+      case '*':
+        // a name test where an operand is expected, and the multiply operator elsewhere
+        operand = !operandNext;
+        break;
+      case '.':
+        size = (next == '.') ? 2 : 1;
+        operand = false;
+        break;
+      case ')':
+      case ']':
+        operand = false;
+        break;
+      case '/':
+        size = (next == '/') ? 2 : 1;
+        operand = true;
+        break;
+      case '!':
+      case '<':
+      case '>':
+        size = (next == '=') ? 2 : 1;
+        operand = true;
+        break;
+      default:
+        // ( [ , | + - =
+        operand = true;
+        break;
+    }
+    out.append(xpath, pos, pos + size);
+    pos += size;
+    token(operand);
+  }
+
+  // Copies or rewrites one name; returns true if it was rewritten.
+  private boolean name() {
+    int length = xpath.length();
+    int start = pos;
+    int end = pos + 1;
+    while (end < length && isNameChar(xpath.charAt(end))) end++;
+    boolean prefixed = false;
+    if (end + 1 < length
+        && xpath.charAt(end) == ':'
+        && (xpath.charAt(end + 1) == '*' || isNameStart(xpath.charAt(end + 1)))) {
+      prefixed = true;
+      end += 2;
+      while (end < length && isNameChar(xpath.charAt(end))) end++;
+    }
+    String name = xpath.substring(start, end);
+    pos = end;
+
+    if (!operandNext) {
+      // and, or, div, mod
+      out.append(name);
+      token(true);
+      return false;
+    }
+    int after = end;
+    while (after < length && Character.isWhitespace(xpath.charAt(after))) after++;
+    if (after < length && xpath.charAt(after) == '(') {
+      // a function or a node type test
+      out.append(name);
+      token(true);
+      return false;
+    }
+    if (!prefixed && after + 1 < length && xpath.startsWith("::", after)) {
+      out.append(xpath, start, after + 2);
+      pos = after + 2;
+      boolean attributeAxis = name.equals("attribute") || name.equals("namespace");
+      token(true);
+      attributeNext = attributeAxis;
+      return false;
+    }
+    boolean rewrite = !prefixed && !attributeNext;
+    if (rewrite) {
+      out.append("*[local-name()='").append(name).append("']");
+    } else {
+      out.append(name);
+    }
+    token(false);
+    return rewrite;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isNameStart(char c) {
+    return Character.isLetter(c) || c == '_' || c > 0x7f;
+  }
+
+  private static boolean isNameChar(char c) {
+    return isNameStart(c) || isDigit(c) || c == '-' || c == '.' || c > 0x7f;
+  }
+}
@@ -0,0 +1,34 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.util;
+
+/**
+ * Thrown when a document exceeds one of the {@link ParseLimits} while it is read. The message
+ * names the limit, eg "max-depth exceeded (limit 64)", and nothing more, so that it can serve
+ * as an error code.
+ */
+public final class ParseLimitException extends IllegalStateException {
+  private final String limit;
+
+  ParseLimitException(String limit, long value) {
+    super(limit + " exceeded (limit " + value + ")");
+    this.limit = limit;
+  }
+
+  /** Returns the name of the limit: max-bytes, max-depth, and so on. */
+  public String getLimit() {
+    return limit;
+  }
+}
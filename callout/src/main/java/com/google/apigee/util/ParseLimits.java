@@ -0,0 +1,250 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.util;
+
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import org.xml.sax.InputSource;
+
+/**
+ * Limits on the size and shape of a document, checked while it is read, so that a parse fails
+ * as soon as the document goes past one of them rather than after it has all been built. A
+ * limit of 0 means no limit. Exceeding a limit throws a {@link ParseLimitException}.
+ *
+ * <ul>
+ *   <li>max-bytes: the bytes read from the source, counting a character source as UTF-8
+ *   <li>max-depth: the nesting of elements, where the document element is at depth 1
+ *   <li>max-elements: the elements in the document
+ *   <li>max-attributes: the attributes of any one element, not counting namespace declarations
+ *   <li>max-text-length: the characters in a run of text and CDATA between two pieces of markup
+ * </ul>
+ */
+public final class ParseLimits {
+  public static final ParseLimits NONE = new ParseLimits();
+
+  private long maxBytes;
+  private int maxDepth;
+  private int maxElements;
+  private int maxAttributes;
+  private int maxTextLength;
+
+  public ParseLimits() {}
+
+  private ParseLimits(ParseLimits other) {
+    this.maxBytes = other.maxBytes;
+    this.maxDepth = other.maxDepth;
+    this.maxElements = other.maxElements;
+    this.maxAttributes = other.maxAttributes;
+    this.maxTextLength = other.maxTextLength;
+  }
+
+  public ParseLimits withMaxBytes(long maxBytes) {
+    ParseLimits limits = new ParseLimits(this);
+    limits.maxBytes = maxBytes;
+    return limits;
+  }
+
+  public ParseLimits withMaxDepth(int maxDepth) {
+    ParseLimits limits = new ParseLimits(this);
+    limits.maxDepth = maxDepth;
+    return limits;
+  }
+
+  public ParseLimits withMaxElements(int maxElements) {
+    ParseLimits limits = new ParseLimits(this);
+    limits.maxElements = maxElements;
+    return limits;
+  }
+
+  public ParseLimits withMaxAttributes(int maxAttributes) {
+    ParseLimits limits = new ParseLimits(this);
+    limits.maxAttributes = maxAttributes;
+    return limits;
+  }
+
+  public ParseLimits withMaxTextLength(int maxTextLength) {
+    ParseLimits limits = new ParseLimits(this);
+    limits.maxTextLength = maxTextLength;
+    return limits;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+  public int getMaxElements() {
+    return maxElements;
+  }
+
+  public int getMaxAttributes() {
+    return maxAttributes;
+  }
+
+  public int getMaxTextLength() {
+    return maxTextLength;
+  }
+
+  /** True if there are no limits at all. */
+  public boolean isEmpty() {
+    return maxBytes == 0 && !limitsStructure();
+  }
+
+  /** True if any limit other than max-bytes is set; those are checked on the parse events. */
+  boolean limitsStructure() {
+    return maxDepth > 0 || maxElements > 0 || maxAttributes > 0 || maxTextLength > 0;
+  }
+
+  /** Wraps the stream of the source, if there is a limit on bytes. */
+  InputSource limitBytes(InputSource source) {
+    if (maxBytes > 0) {
+      if (source.getCharacterStream() != null) {
+        source.setCharacterStream(new LimitedReader(source.getCharacterStream(), maxBytes));
+      } else if (source.getByteStream() != null) {
+        source.setByteStream(new LimitedInputStream(source.getByteStream(), maxBytes));
+      }
+    }
+    return source;
+  }
+
+  Checker newChecker() {
+    return new Checker();
+  }
+
+  /** Tracks one read through one document, and throws when it goes past a limit. */
+  final class Checker {
+    private int depth;
+    private int elements;
+    private int textLength;
+
+    void startElement(int attributes) {
+      textLength = 0;
+      if (maxDepth > 0 && ++depth > maxDepth) {
+        throw new ParseLimitException("max-depth", maxDepth);
+      }
+      if (maxElements > 0 && ++elements > maxElements) {
+        throw new ParseLimitException("max-elements", maxElements);
+      }
+      if (maxAttributes > 0 && attributes > maxAttributes) {
+        throw new ParseLimitException("max-attributes", maxAttributes);
+      }
+    }
+
+    void endElement() {
+      textLength = 0;
+      depth--;
+    }
+
+    void text(int length) {
+      textLength += length;
+      if (maxTextLength > 0 && textLength > maxTextLength) {
+        throw new ParseLimitException("max-text-length", maxTextLength);
+      }
+    }
+
+    // a comment or a PI ends a run of text
+    void markup() {
+      textLength = 0;
+    }
+  }
+
+  private static final class LimitedInputStream extends FilterInputStream {
+    private final long limit;
+    private long count;
+
+    LimitedInputStream(InputStream in, long limit) {
+      super(in);
+      this.limit = limit;
+    }
+
+    private void add(long n) {
+      count += n;
+      if (count > limit) {
+        throw new ParseLimitException("max-bytes", limit);
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = in.read();
+      if (b >= 0) add(1);
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = in.read(b, off, len);
+      if (n > 0) add(n);
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = in.skip(n);
+      add(skipped);
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
+
+  private static final class LimitedReader extends FilterReader {
+    private final long limit;
+    private long count;
+
+    LimitedReader(Reader in, long limit) {
+      super(in);
+      this.limit = limit;
+    }
+
+    private void add(char c) {
+      // UTF-8 takes 1 to 3 bytes for a char, and 4 for a surrogate pair
+      count += (c < 0x80) ? 1 : (c < 0x800 || Character.isSurrogate(c)) ? 2 : 3;
+      if (count > limit) {
+        throw new ParseLimitException("max-bytes", limit);
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      int c = in.read();
+      if (c >= 0) add((char) c);
+      return c;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+      int n = in.read(cbuf, off, len);
+      for (int i = 0; i < n; i++) {
+        add(cbuf[off + i]);
+      }
+      return n;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,74 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.util;
+
+/** Options for {@link XmlUtils#parseXml(org.xml.sax.InputSource, ParseOptions)}. */
+public final class ParseOptions {
+  public static final ParseOptions DEFAULT = new ParseOptions();
+
+  private DocumentProjection projection;
+  private Boolean deferNodeExpansion;
+  private ParseLimits limits = ParseLimits.NONE;
+
+  public ParseOptions() {}
+
+  private ParseOptions(ParseOptions other) {
+    this.projection = other.projection;
+    this.deferNodeExpansion = other.deferNodeExpansion;
+    this.limits = other.limits;
+  }
+
+  /** Returns options that build only the parts of the document the projection keeps. */
+  public ParseOptions withProjection(DocumentProjection projection) {
+    ParseOptions options = new ParseOptions(this);
+    options.projection = projection;
+    return options;
+  }
+
+  public DocumentProjection getProjection() {
+    return projection;
+  }
+
+  /**
+   * Returns options that ask the DOM parser to create nodes lazily, as they are first visited
+   * (true), or to build every node while parsing (false). The JDK parser defers by default. A
+   * projected document is always built in full, since it only holds the nodes that are needed.
+   */
+  public ParseOptions withDeferNodeExpansion(boolean defer) {
+    ParseOptions options = new ParseOptions(this);
+    options.deferNodeExpansion = defer;
+    return options;
+  }
+
+  /** Returns the node expansion setting, or null to use the parser's default. */
+  public Boolean getDeferNodeExpansion() {
+    return deferNodeExpansion;
+  }
+
+  /**
+   * Returns options that fail the parse once the document goes past one of the limits. Other
+   * than max-bytes, the limits are checked on SAX events, so a document with any of them is
+   * built in full from those events, as a projected document is, rather than by the DOM parser.
+   */
+  public ParseOptions withLimits(ParseLimits limits) {
+    ParseOptions options = new ParseOptions(this);
+    options.limits = limits;
+    return options;
+  }
+
+  public ParseLimits getLimits() {
+    return limits;
+  }
+}
@@ -0,0 +1,188 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.util;
+
+import java.util.Arrays;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+import org.xml.sax.Attributes;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A SAX handler that builds a DOM, keeping only the elements that a {@link DocumentProjection}
+ * says may be relevant, or all of them when there is no projection. The nodes it builds are the
+ * same as the ones the DOM parser would build: adjacent character data becomes one Text node,
+ * each CDATA section becomes its own node, and namespace declarations are attributes.
+ */
+final class ProjectingDomBuilder extends DefaultHandler implements LexicalHandler {
+  private final Document document;
+  private final DocumentProjection projection;
+
+  private Node current;
+  private int skipDepth; // > 0 while inside a dropped element
+  private int keepAllDepth; // > 0 while inside an element that is kept with all of its content
+  private long[][] matched = new long[16][];
+  private int depth;
+  private CDATASection cdata;
+  private boolean inCdata;
+  private boolean inDtd;
+
+  ProjectingDomBuilder(Document document, DocumentProjection projection) {
+    this.document = document;
+    this.projection = projection;
+    this.current = document;
+    if (projection == null) {
+      keepAllDepth = 1;
+      return;
+    }
+    long[] documentNode = new long[projection.paths.length];
+    Arrays.fill(documentNode, 1L);
+    matched[0] = documentNode;
+  }
+
+  Document getDocument() {
+    return document;
+  }
+
+  // true if character data, comments and PIs at this point belong in the DOM
+  private boolean keepingContent() {
+    return skipDepth == 0 && !inDtd && (keepAllDepth > 0 || current == document);
+  }
+
+  @Override
+  public void startElement(String uri, String localName, String qName, Attributes attributes) {
+    if (skipDepth > 0) {
+      skipDepth++;
+      return;
+    }
+    if (keepAllDepth > 0) {
+      keepAllDepth++;
+    } else {
+      depth++;
+      if (depth == matched.length) {
+        matched = Arrays.copyOf(matched, depth * 2);
+      }
+      if (matched[depth] == null) {
+        matched[depth] = new long[projection.paths.length];
+      }
+      int decision = projection.decide(matched[depth - 1], uri, localName, matched[depth]);
+      if (decision == DocumentProjection.DROP && depth > 1) {
+        depth--;
+        skipDepth = 1;
+        return;
+      }
+      if (decision == DocumentProjection.KEEP_ALL) {
+        keepAllDepth = 1;
+      }
+    }
+    Element element = document.createElementNS(emptyToNull(uri), qName);
+    for (int i = 0; i < attributes.getLength(); i++) {
+      element.setAttributeNS(
+          emptyToNull(attributes.getURI(i)), attributes.getQName(i), attributes.getValue(i));
+    }
+    current.appendChild(element);
+    current = element;
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qName) {
+    if (skipDepth > 0) {
+      skipDepth--;
+      return;
+    }
+    if (keepAllDepth > 0) {
+      keepAllDepth--;
+      if (keepAllDepth > 0) {
+        current = current.getParentNode();
+        return;
+      }
+    }
+    depth--;
+    current = current.getParentNode();
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length) {
+    if (length == 0 || current == document || !keepingContent()) return;
+    if (inCdata) {
+      cdata.appendData(new String(ch, start, length));
+      return;
+    }
+    Node last = current.getLastChild();
+    if (last != null && last.getNodeType() == Node.TEXT_NODE) {
+      ((Text) last).appendData(new String(ch, start, length));
+    } else {
+      current.appendChild(document.createTextNode(new String(ch, start, length)));
+    }
+  }
+
+  @Override
+  public void ignorableWhitespace(char[] ch, int start, int length) {
+    characters(ch, start, length);
+  }
+
+  @Override
+  public void processingInstruction(String target, String data) {
+    if (keepingContent()) {
+      current.appendChild(document.createProcessingInstruction(target, data));
+    }
+  }
+
+  @Override
+  public void comment(char[] ch, int start, int length) {
+    if (keepingContent()) {
+      current.appendChild(document.createComment(new String(ch, start, length)));
+    }
+  }
+
+  @Override
+  public void startCDATA() {
+    if (keepingContent()) {
+      cdata = document.createCDATASection("");
+      current.appendChild(cdata);
+      inCdata = true;
+    }
+  }
+
+  @Override
+  public void endCDATA() {
+    inCdata = false;
+    cdata = null;
+  }
+
+  @Override
+  public void startDTD(String name, String publicId, String systemId) {
+    inDtd = true;
+  }
+
+  @Override
+  public void endDTD() {
+    inDtd = false;
+  }
+
+  @Override
+  public void startEntity(String name) {}
+
+  @Override
+  public void endEntity(String name) {}
+
+  private static String emptyToNull(String s) {
+    return (s == null || s.length() == 0) ? null : s;
+  }
+}
@@ -0,0 +1,186 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.util;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.util.Map;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+
+/**
+ * Reads an XML document that holds many records, like the order elements of
+ * /orders/order, and returns each record in turn as a Document of its own, without building
+ * the rest of the document. Only one record is held at a time, so the size of the input is
+ * not limited by memory.
+ *
+ * <p>The record path is an absolute path of child element steps, without predicates. Names
+ * may use a prefix from the given namespaces, or *. In each record Document, the record
+ * element is the document element; namespace declarations made by its ancestors are not
+ * copied onto it.
+ *
+ * <p>A RecordReader is not safe for use by two threads at once, but the Documents it returns
+ * are independent of it, and of each other.
+ */
+public final class RecordReader implements Closeable {
+  private static final String XMLNS_URI = "http://www.w3.org/2000/xmlns/";
+  private static final XMLInputFactory inputFactory = StreamingExtractor.newInputFactory();
+
+  private final SimplePath.Step[] steps;
+  private final XMLStreamReader reader;
+  private final DocumentBuilder builder;
+  private int depth; // of the current element
+  private int matched; // the number of steps matched by the current element and its ancestors
+
+  /** Reads from the stream, which the caller must close. */
+  public RecordReader(InputStream in, String recordPath, Map<String, String> namespaces)
+      throws XMLStreamException {
+    this.steps = compile(recordPath, namespaces);
+    try {
+      this.builder = XmlUtils.newNamespaceAwareBuilder();
+    } catch (ParserConfigurationException exc1) {
+      throw new IllegalStateException(exc1);
+    }
+    this.reader = inputFactory.createXMLStreamReader(in);
+  }
+
+  private static SimplePath.Step[] compile(String recordPath, Map<String, String> namespaces) {
+    SimplePath path = SimplePath.parse(recordPath, namespaces);
+    boolean supported = path != null && path.target == SimplePath.ELEMENT;
+    for (int s = 0; supported && s < path.steps.length; s++) {
+      supported = !path.steps[s].descendant && path.steps[s].predicates.length == 0;
+    }
+    if (!supported) {
+      throw new IllegalArgumentException(
+          "record path must be an absolute path of child element steps: " + recordPath);
+    }
+    return path.steps;
+  }
+
+  /** Returns the next record, or null when there are no more. */
+  public Document next() throws XMLStreamException {
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+        if (matched == depth - 1
+            && depth <= steps.length
+            && steps[depth - 1].test.matches(reader.getNamespaceURI(), reader.getLocalName())) {
+          matched = depth;
+          if (depth == steps.length) {
+            // reads through the end of the record
+            Document record = readRecord();
+            matched--;
+            depth--;
+            return record;
+          }
+        }
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        if (matched == depth) {
+          matched--;
+        }
+        depth--;
+      }
+    }
+    return null;
+  }
+
+  private Document readRecord() throws XMLStreamException {
+    Document document = builder.newDocument();
+    Node parent = document;
+    int level = 0;
+    while (true) {
+      switch (reader.getEventType()) {
+        case XMLStreamConstants.START_ELEMENT:
+          Element element =
+              document.createElementNS(
+                  emptyToNull(reader.getNamespaceURI()),
+                  qualifiedName(reader.getPrefix(), reader.getLocalName()));
+          for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            element.setAttributeNS(
+                XMLNS_URI,
+                (prefix == null || prefix.equals("")) ? "xmlns" : "xmlns:" + prefix,
+                reader.getNamespaceURI(i));
+          }
+          for (int i = 0; i < reader.getAttributeCount(); i++) {
+            element.setAttributeNS(
+                emptyToNull(reader.getAttributeNamespace(i)),
+                qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                reader.getAttributeValue(i));
+          }
+          parent.appendChild(element);
+          parent = element;
+          level++;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          parent = parent.getParentNode();
+          level--;
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.SPACE:
+          // the parser may report one run of text in pieces; the DOM keeps it as one node
+          Node last = parent.getLastChild();
+          if (last != null && last.getNodeType() == Node.TEXT_NODE) {
+            ((Text) last).appendData(reader.getText());
+          } else {
+            parent.appendChild(document.createTextNode(reader.getText()));
+          }
+          break;
+        case XMLStreamConstants.CDATA:
+          parent.appendChild(document.createCDATASection(reader.getText()));
+          break;
+        case XMLStreamConstants.COMMENT:
+          parent.appendChild(document.createComment(reader.getText()));
+          break;
+        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+          parent.appendChild(
+              document.createProcessingInstruction(
+                  reader.getPITarget(), (reader.getPIData() == null) ? "" : reader.getPIData()));
+          break;
+        default:
+          break;
+      }
+      if (level == 0) {
+        return document;
+      }
+      reader.next();
+    }
+  }
+
+  private static String emptyToNull(String s) {
+    return (s == null || s.equals("")) ? null : s;
+  }
+
+  private static String qualifiedName(String prefix, String localName) {
+    return (prefix == null || prefix.equals("")) ? localName : prefix + ":" + localName;
+  }
+
+  public void close() {
+    try {
+      reader.close();
+    } catch (XMLStreamException exc1) {
+      // ignore
+    }
+  }
+}
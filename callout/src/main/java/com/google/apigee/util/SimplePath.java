@@ -0,0 +1,255 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An XPath in the small subset that can be evaluated without the JAXP interpreter: an absolute
+ * location path of child (/) and descendant (//) element steps, each with optional positional
+ * ([2]) and attribute-equality ([@a='v']) predicates, ending in an element step, an attribute
+ * step (@a) or text(). Name tests may use a registered prefix, or *.
+ */
+final class SimplePath {
+  static final int ELEMENT = 0;
+  static final int ATTRIBUTE = 1;
+  static final int TEXT = 2;
+
+  static final class NameTest {
+    final String namespaceURI; // null for no namespace
+    final String localName; // null for any local name
+    final boolean anyNamespace;
+
+    NameTest(String namespaceURI, String localName, boolean anyNamespace) {
+      this.namespaceURI = namespaceURI;
+      this.localName = localName;
+      this.anyNamespace = anyNamespace;
+    }
+
+    boolean matches(String namespaceURI, String localName) {
+      if (!anyNamespace && !sameNamespace(this.namespaceURI, namespaceURI)) return false;
+      return this.localName == null || this.localName.equals(localName);
+    }
+
+    boolean isWildcard() {
+      return localName == null;
+    }
+  }
+
+  static final class Predicate {
+    final int position; // 0 for an attribute-equality predicate
+    final NameTest attribute;
+    final String value;
+
+    Predicate(int position, NameTest attribute, String value) {
+      this.position = position;
+      this.attribute = attribute;
+      this.value = value;
+    }
+  }
+
+  static final class Step {
+    final boolean descendant;
+    final NameTest test;
+    final Predicate[] predicates;
+
+    Step(boolean descendant, NameTest test, Predicate[] predicates) {
+      this.descendant = descendant;
+      this.test = test;
+      this.predicates = predicates;
+    }
+
+    /** True if at most one child of any given parent can satisfy this step. */
+    boolean hasPosition() {
+      for (Predicate predicate : predicates) {
+        if (predicate.position > 0) return true;
+      }
+      return false;
+    }
+  }
+
+  final String xpath;
+  final Step[] steps; // the element steps, including the last one when target == ELEMENT
+  final int target;
+  final NameTest attributeTest; // when target == ATTRIBUTE
+
+  private SimplePath(String xpath, Step[] steps, int target, NameTest attributeTest) {
+    this.xpath = xpath;
+    this.steps = steps;
+    this.target = target;
+    this.attributeTest = attributeTest;
+  }
+
+  static boolean sameNamespace(String ns1, String ns2) {
+    if (ns1 == null || ns1.length() == 0) return ns2 == null || ns2.length() == 0;
+    return ns1.equals(ns2);
+  }
+
+  /**
+   * Returns true if every element step is known to select at most one element: the first
+   * step (there is one root element), and each child step with a positional predicate.
+   */
+  boolean isUnique() {
+    return uniquePrefixLength() == steps.length;
+  }
+
+  /** The number of leading element steps that each select at most one element. */
+  int uniquePrefixLength() {
+    int n = 0;
+    while (n < steps.length
+        && !steps[n].descendant
+        && (n == 0 || steps[n].hasPosition())) {
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Parses the xpath, resolving prefixes with the given namespaces. Returns null if the
+   * expression is outside the supported subset, or uses a prefix that is not registered, so
+   * that the caller can fall back to the JAXP evaluator.
+   */
+  static SimplePath parse(String xpath, Map<String, String> namespaces) {
+    Parser parser = new Parser(xpath.trim(), namespaces);
+    try {
+      return parser.parse(xpath);
+    } catch (IndexOutOfBoundsException exc1) {
+      return null;
+    }
+  }
+
+  private static final class Parser {
+    private final String s;
+    private final Map<String, String> namespaces;
+    private int i;
+
+    Parser(String s, Map<String, String> namespaces) {
+      this.s = s;
+      this.namespaces = namespaces;
+    }
+
+    SimplePath parse(String xpath) {
+      List<Step> steps = new ArrayList<Step>();
+      int len = s.length();
+      if (len == 0 || s.charAt(0) != '/') return null;
+      while (true) {
+        boolean descendant = s.startsWith("//", i);
+        i += descendant ? 2 : 1;
+        if (s.startsWith("text()", i) && i + 6 == len) {
+          if (descendant || steps.isEmpty()) return null;
+          return new SimplePath(xpath, steps.toArray(new Step[0]), TEXT, null);
+        }
+        if (s.charAt(i) == '@') {
+          i++;
+          NameTest test = nameTest();
+          if (test == null || i != len || descendant || steps.isEmpty()) return null;
+          return new SimplePath(xpath, steps.toArray(new Step[0]), ATTRIBUTE, test);
+        }
+        NameTest test = nameTest();
+        if (test == null) return null;
+        List<Predicate> predicates = new ArrayList<Predicate>();
+        while (i < len && s.charAt(i) == '[') {
+          i++;
+          Predicate predicate = predicate();
+          if (predicate == null) return null;
+          predicates.add(predicate);
+        }
+        steps.add(new Step(descendant, test, predicates.toArray(new Predicate[0])));
+        if (i == len) {
+          return new SimplePath(xpath, steps.toArray(new Step[0]), ELEMENT, null);
+        }
+        if (s.charAt(i) != '/') return null;
+      }
+    }
+
+    private NameTest nameTest() {
+      if (s.charAt(i) == '*') {
+        i++;
+        return new NameTest(null, null, true);
+      }
+      String name = ncName();
+      if (name == null) return null;
+      if (i < s.length() && s.charAt(i) == ':' && !s.startsWith("::", i)) {
+        i++;
+        String uri = namespaces.get(name);
+        if (uri == null) return null;
+        if (s.charAt(i) == '*') {
+          i++;
+          return new NameTest(uri, null, false);
+        }
+        String localName = ncName();
+        if (localName == null) return null;
+        return new NameTest(uri, localName, false);
+      }
+      if (i < s.length() && (s.charAt(i) == '(' || s.charAt(i) == ':')) {
+        return null; // a function, node type test or axis
+      }
+      return new NameTest(null, name, false);
+    }
+
+    private String ncName() {
+      int start = i;
+      char c = s.charAt(i);
+      if (!Character.isLetter(c) && c != '_') return null;
+      i++;
+      while (i < s.length()) {
+        c = s.charAt(i);
+        if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.') break;
+        i++;
+      }
+      return s.substring(start, i);
+    }
+
+    private void skipSpace() {
+      while (s.charAt(i) == ' ' || s.charAt(i) == '\t') i++;
+    }
+
+    private Predicate predicate() {
+      skipSpace();
+      char c = s.charAt(i);
+      Predicate predicate;
+      if (c >= '0' && c <= '9') {
+        int start = i;
+        while (Character.isDigit(s.charAt(i))) i++;
+        if (i - start > 9) return null;
+        int position = Integer.parseInt(s.substring(start, i));
+        if (position < 1) return null;
+        predicate = new Predicate(position, null, null);
+      } else if (c == '@') {
+        i++;
+        NameTest attribute = nameTest();
+        if (attribute == null || attribute.isWildcard()) return null;
+        skipSpace();
+        if (s.charAt(i) != '=') return null;
+        i++;
+        skipSpace();
+        char quote = s.charAt(i);
+        if (quote != '\'' && quote != '"') return null;
+        int end = s.indexOf(quote, i + 1);
+        if (end < 0) return null;
+        predicate = new Predicate(0, attribute, s.substring(i + 1, end));
+        i = end + 1;
+      } else {
+        return null;
+      }
+      skipSpace();
+      if (s.charAt(i) != ']') return null;
+      i++;
+      return predicate;
+    }
+  }
+}
@@ -0,0 +1,457 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.xml.sax.InputSource;
+
+/**
+ * Evaluates a set of xpaths against an XML document in a single pass over a StAX reader,
+ * without building a DOM, and stops reading as soon as every xpath has been resolved.
+ *
+ * <p>Only the {@link SimplePath} subset is handled. For each xpath the result is the number of
+ * nodes the xpath selects, and the value of the first one, computed the same way ExtractXpath
+ * computes it from a DOM node. If an xpath is outside the subset, or the document contains a
+ * DTD, an entity reference, or anything else the reader cannot treat exactly as the DOM
+ * parser would, extract() returns null, and the caller should use the DOM instead.
+ *
+ * <p>Because reading stops early, a well-formedness error that appears after the last node of
+ * interest is not reported.
+ */
+public final class StreamingExtractor {
+
+  private static final String REPORT_CDATA =
+      "http://java.sun.com/xml/stream/properties/report-cdata-event";
+  private static final XMLInputFactory inputFactory = newInputFactory();
+
+  // Without CDATA events, text() nodes cannot be counted the way the DOM counts them.
+  private static final boolean reportsCdata =
+      inputFactory.isPropertySupported(REPORT_CDATA)
+          && Boolean.TRUE.equals(inputFactory.getProperty(REPORT_CDATA));
+
+  static XMLInputFactory newInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    if (factory.isPropertySupported(REPORT_CDATA)) {
+      factory.setProperty(REPORT_CDATA, Boolean.TRUE);
+    }
+    return factory;
+  }
+
+  public static final class Result {
+    private int count;
+    private String value;
+    private String string;
+
+    /** The number of nodes selected by the xpath. */
+    public int getCount() {
+      return count;
+    }
+
+    /** The text of the first node selected, or null if none. */
+    public String getValue() {
+      return value;
+    }
+
+    /**
+     * The XPath string-value of the first node selected, or null if none. This differs from
+     * {@link #getValue()} only for a text() node, which is the whole run of adjacent text and
+     * CDATA, where the value is the text of the first DOM node in the run.
+     */
+    public String getString() {
+      return string;
+    }
+  }
+
+  private final SimplePath[] paths;
+
+  private StreamingExtractor(SimplePath[] paths) {
+    this.paths = paths;
+  }
+
+  /**
+   * Returns an extractor for the given xpaths, or null if any of them is outside the subset
+   * that can be evaluated while streaming.
+   */
+  public static StreamingExtractor compile(List<String> xpaths, Map<String, String> namespaces) {
+    SimplePath[] paths = new SimplePath[xpaths.size()];
+    for (int i = 0; i < paths.length; i++) {
+      paths[i] = SimplePath.parse(xpaths.get(i), namespaces);
+      if (paths[i] == null
+          || paths[i].steps.length > 62
+          || (paths[i].target == SimplePath.TEXT && !reportsCdata)
+          // the DOM orders the attributes of an element by name, not as they were written
+          || (paths[i].target == SimplePath.ATTRIBUTE && paths[i].attributeTest.isWildcard())) {
+        return null;
+      }
+    }
+    return new StreamingExtractor(paths);
+  }
+
+  /**
+   * Reads the source and returns one result per xpath, in the order given to compile(), or
+   * null if the document must be evaluated with the DOM instead.
+   */
+  public Result[] extract(InputSource source) {
+    return extract(source, ParseLimits.NONE);
+  }
+
+  /**
+   * As {@link #extract(InputSource)}, failing with a {@link ParseLimitException} if the part of
+   * the document that is read goes past one of the limits.
+   */
+  public Result[] extract(InputSource source, ParseLimits limits) {
+    limits.limitBytes(source);
+    XMLStreamReader reader = null;
+    try {
+      if (source.getCharacterStream() != null) {
+        reader = inputFactory.createXMLStreamReader(source.getCharacterStream());
+      } else if (source.getEncoding() != null) {
+        reader =
+            inputFactory.createXMLStreamReader(source.getByteStream(), source.getEncoding());
+      } else {
+        reader = inputFactory.createXMLStreamReader(source.getByteStream());
+      }
+      return new Pass(paths, limits.limitsStructure() ? limits.newChecker() : null).run(reader);
+    } catch (XMLStreamException exc1) {
+      // let the DOM parser report the problem, in its own words
+      return null;
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (XMLStreamException exc2) {
+          // ignore
+        }
+      }
+    }
+  }
+
+  private static final class Frame {
+    long[] matched; // bit 0: the document node; bit i+1: matches step i of the path
+    long[] below; // union of the matched bits of all ancestors
+    int[] positions; // per path and step, children of this element that passed the step
+    int[] textOwners = new int[4]; // paths whose text() nodes are the children of this element
+    int textOwnerCount;
+    boolean runOpen; // a run of adjacent text and CDATA children is open
+    boolean runInFirstNode;
+    boolean runStartsWithCdata;
+
+    Frame(int pathCount, int positionCount) {
+      matched = new long[pathCount];
+      below = new long[pathCount];
+      positions = new int[positionCount];
+    }
+
+    void reset() {
+      Arrays.fill(matched, 0L);
+      Arrays.fill(below, 0L);
+      Arrays.fill(positions, 0);
+      textOwnerCount = 0;
+      runOpen = false;
+    }
+
+    void addTextOwner(int p) {
+      if (textOwnerCount == textOwners.length) {
+        textOwners = Arrays.copyOf(textOwners, textOwnerCount * 2);
+      }
+      textOwners[textOwnerCount++] = p;
+    }
+  }
+
+  /** The state of one read through one document. */
+  private static final class Pass {
+    private final SimplePath[] paths;
+    private final int[] positionBase; // offset of each path's step counters in Frame.positions
+    private final long[] uniqueMask;
+    private final Result[] results;
+    private final boolean[] done;
+    private int remaining;
+
+    private final StringBuilder[] capture;
+    private final int[] captureDepth;
+    private int capturing;
+    private final StringBuilder firstTextNode = new StringBuilder();
+    private final StringBuilder textRun = new StringBuilder();
+    private final ParseLimits.Checker checker; // null when there are no limits to check
+
+    private Frame[] stack = new Frame[16];
+    private int depth; // 0 is the document node
+
+    Pass(SimplePath[] paths, ParseLimits.Checker checker) {
+      this.paths = paths;
+      this.checker = checker;
+      int n = paths.length;
+      positionBase = new int[n];
+      uniqueMask = new long[n];
+      results = new Result[n];
+      done = new boolean[n];
+      capture = new StringBuilder[n];
+      captureDepth = new int[n];
+      int positionCount = 0;
+      for (int p = 0; p < n; p++) {
+        positionBase[p] = positionCount;
+        positionCount += paths[p].steps.length;
+        // a bit for each of the leading steps that can match only one element
+        uniqueMask[p] = ((1L << paths[p].uniquePrefixLength()) - 1) << 1;
+        results[p] = new Result();
+        captureDepth[p] = -1;
+      }
+      remaining = n;
+      // the other frames are created as the document gets deeper
+      Frame document = stack[0] = new Frame(n, positionCount);
+      document.reset();
+      Arrays.fill(document.matched, 1L);
+    }
+
+    Result[] run(XMLStreamReader reader) throws XMLStreamException {
+      if ("1.1".equals(reader.getVersion())) {
+        return null;
+      }
+      while (remaining > 0 && reader.hasNext()) {
+        int event = reader.next();
+        if (checker != null) {
+          check(reader, event);
+        }
+        switch (event) {
+          case XMLStreamConstants.START_ELEMENT:
+            endTextRun();
+            startElement(reader);
+            break;
+          case XMLStreamConstants.END_ELEMENT:
+            endTextRun();
+            endElement();
+            break;
+          case XMLStreamConstants.CHARACTERS:
+          case XMLStreamConstants.SPACE:
+            if (depth > 0) text(reader, false);
+            break;
+          case XMLStreamConstants.CDATA:
+            text(reader, true);
+            break;
+          case XMLStreamConstants.COMMENT:
+          case XMLStreamConstants.PROCESSING_INSTRUCTION:
+            endTextRun();
+            break;
+          case XMLStreamConstants.DTD:
+          case XMLStreamConstants.ENTITY_REFERENCE:
+            return null;
+          default:
+            break;
+        }
+      }
+      return results;
+    }
+
+    private void check(XMLStreamReader reader, int event) {
+      switch (event) {
+        case XMLStreamConstants.START_ELEMENT:
+          checker.startElement(reader.getAttributeCount());
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          checker.endElement();
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.SPACE:
+        case XMLStreamConstants.CDATA:
+          if (depth > 0) checker.text(reader.getTextLength());
+          break;
+        case XMLStreamConstants.COMMENT:
+        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+          checker.markup();
+          break;
+        default:
+          break;
+      }
+    }
+
+    private Frame push() {
+      depth++;
+      if (depth == stack.length) {
+        stack = Arrays.copyOf(stack, depth * 2);
+      }
+      Frame frame = stack[depth];
+      if (frame == null) {
+        frame = stack[depth] = new Frame(paths.length, stack[0].positions.length);
+      }
+      frame.reset();
+      return frame;
+    }
+
+    private void startElement(XMLStreamReader reader) {
+      Frame parent = stack[depth];
+      Frame frame = push();
+      String namespaceURI = reader.getNamespaceURI();
+      String localName = reader.getLocalName();
+      for (int p = 0; p < paths.length; p++) {
+        frame.below[p] = parent.below[p] | parent.matched[p];
+        if (done[p]) continue;
+        SimplePath path = paths[p];
+        long matched = 0L;
+        for (int s = 0; s < path.steps.length; s++) {
+          SimplePath.Step step = path.steps[s];
+          long context = step.descendant ? frame.below[p] : parent.matched[p];
+          if ((context & (1L << s)) == 0) continue;
+          if (!step.test.matches(namespaceURI, localName)) continue;
+          if (passes(step, reader, parent.positions, positionBase[p] + s)) {
+            matched |= 1L << (s + 1);
+          }
+        }
+        frame.matched[p] = matched;
+        long owner = 1L << path.steps.length;
+        if ((matched & owner) == 0) continue;
+        switch (path.target) {
+          case SimplePath.ELEMENT:
+            if (results[p].count++ == 0) {
+              capture[p] = new StringBuilder();
+              captureDepth[p] = depth;
+              capturing++;
+            }
+            break;
+          case SimplePath.ATTRIBUTE:
+            for (int a = 0; a < reader.getAttributeCount(); a++) {
+              if (path.attributeTest.matches(
+                  reader.getAttributeNamespace(a), reader.getAttributeLocalName(a))) {
+                if (results[p].count++ == 0) {
+                  results[p].value = results[p].string = reader.getAttributeValue(a);
+                }
+              }
+            }
+            if (path.isUnique()) {
+              finish(p);
+            }
+            break;
+          case SimplePath.TEXT:
+            frame.addTextOwner(p);
+            break;
+        }
+      }
+    }
+
+    private static boolean passes(
+        SimplePath.Step step, XMLStreamReader reader, int[] positions, int slot) {
+      // the first positional predicate is counted in the parent; any others never match a
+      // second node, because a position applies to the nodes that passed the earlier ones
+      boolean counted = false;
+      for (SimplePath.Predicate predicate : step.predicates) {
+        if (predicate.position > 0) {
+          if (!counted) {
+            counted = true;
+            if (++positions[slot] != predicate.position) return false;
+          } else if (predicate.position != 1) {
+            return false;
+          }
+        } else {
+          String value =
+              attributeValue(
+                  reader, predicate.attribute.namespaceURI, predicate.attribute.localName);
+          if (value == null || !value.equals(predicate.value)) return false;
+        }
+      }
+      return true;
+    }
+
+    private static String attributeValue(
+        XMLStreamReader reader, String namespaceURI, String localName) {
+      for (int a = 0; a < reader.getAttributeCount(); a++) {
+        if (localName.equals(reader.getAttributeLocalName(a))
+            && SimplePath.sameNamespace(namespaceURI, reader.getAttributeNamespace(a))) {
+          return reader.getAttributeValue(a);
+        }
+      }
+      return null;
+    }
+
+    private void endElement() {
+      Frame frame = stack[depth];
+      if (capturing > 0) {
+        for (int p = 0; p < paths.length; p++) {
+          if (captureDepth[p] == depth) {
+            results[p].value = results[p].string = capture[p].toString();
+            capture[p] = null;
+            captureDepth[p] = -1;
+            capturing--;
+          }
+        }
+      }
+      for (int p = 0; p < paths.length; p++) {
+        // no more matches can follow the end of an element that only one element can match
+        if (!done[p] && (frame.matched[p] & uniqueMask[p]) != 0) {
+          finish(p);
+        }
+      }
+      depth--;
+    }
+
+    private void finish(int p) {
+      done[p] = true;
+      remaining--;
+    }
+
+    private void text(XMLStreamReader reader, boolean cdata) {
+      if (capturing > 0) {
+        char[] chars = reader.getTextCharacters();
+        int start = reader.getTextStart();
+        int length = reader.getTextLength();
+        for (int p = 0; p < paths.length; p++) {
+          if (captureDepth[p] > 0) {
+            capture[p].append(chars, start, length);
+          }
+        }
+      }
+      Frame frame = stack[depth];
+      if (frame.textOwnerCount == 0) return;
+      // Adjacent character data is one DOM Text node, each CDATA section is a node of its own,
+      // and XPath treats a run of adjacent text and CDATA nodes as a single text() node.
+      if (!frame.runOpen) {
+        frame.runOpen = true;
+        frame.runInFirstNode = true;
+        frame.runStartsWithCdata = cdata;
+        firstTextNode.setLength(0);
+        textRun.setLength(0);
+      } else if (cdata || frame.runStartsWithCdata) {
+        frame.runInFirstNode = false;
+      }
+      textRun.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+      if (frame.runInFirstNode && !cdata) {
+        firstTextNode.append(
+            reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+      }
+    }
+
+    private void endTextRun() {
+      Frame frame = stack[depth];
+      if (!frame.runOpen) return;
+      frame.runOpen = false;
+      for (int i = 0; i < frame.textOwnerCount; i++) {
+        int p = frame.textOwners[i];
+        if (results[p].count++ == 0) {
+          // ExtractXpath reads the value of a CDATA section node as the empty string
+          results[p].value = frame.runStartsWithCdata ? "" : firstTextNode.toString();
+          results[p].string = textRun.toString();
+        }
+      }
+    }
+  }
+}
@@ -14,28 +14,19 @@
 //
 package com.google.apigee.util;
 
-import java.io.CharArrayReader;
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Hashtable;
-import java.util.Iterator;
-import javax.xml.namespace.NamespaceContext;
+import java.util.Map;
 import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -44,31 +35,51 @@ import org.xml.sax.SAXException;
 
 /** @author Michael Bien */
 public class XPathEvaluator {
+  private static final int MAX_RETAINED_CAPACITY = 8192;
 
-  private Transformer transformer;
+  // created on first use, as most callers bring a Document
   private DocumentBuilder docBuilder;
+  // reused for each result, like the DocumentBuilder
+  private final StringBuilder result = new StringBuilder();
 
-  public XPathEvaluator() {
-    try {
-      transformer = TransformerFactory.newInstance().newTransformer();
-      transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-      transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-    } catch (TransformerConfigurationException ex) {
-      ex.printStackTrace();
-    }
-    try {
-      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-      factory.setNamespaceAware(true);
-      docBuilder = factory.newDocumentBuilder();
-    } catch (ParserConfigurationException ex) {
-      ex.printStackTrace();
+  private DocumentBuilder getDocBuilder() {
+    if (docBuilder == null) {
+      try {
+        docBuilder = XmlUtils.newNamespaceAwareBuilder();
+      } catch (ParserConfigurationException ex) {
+        throw new IllegalStateException(ex);
+      }
     }
+    return docBuilder;
   }
 
+  private static final XPathExpressionCache expressionCache = new XPathExpressionCache();
+
   private Hashtable<String, String> prefixi = new Hashtable<String, String>();
+  private volatile Map<String, String> namespaces = Collections.emptyMap();
+  private String defaultNamespacePrefix;
 
   public void registerNamespace(String prefix, String ns) {
     prefixi.put(prefix, ns);
+    namespaces = Collections.unmodifiableMap(new HashMap<String, String>(prefixi));
+  }
+
+  /**
+   * Sets the prefix that {@link #evaluate(String, String, QName)} binds to the default
+   * namespace of the document, or null, the default, to match names without a prefix in any
+   * namespace.
+   */
+  public void setDefaultNamespacePrefix(String prefix) {
+    this.defaultNamespacePrefix = prefix;
+  }
+
+  /** Returns an unmodifiable snapshot of the namespaces registered so far. */
+  public Map<String, String> getNamespaces() {
+    return namespaces;
+  }
+
+  public static XPathExpressionCache.Stats getExpressionCacheStats() {
+    return expressionCache.getStats();
   }
 
   public String evalXPathToString(String xpath, Document doc)
@@ -87,7 +98,8 @@ public class XPathEvaluator {
 
     if (resultXML.getLength() != 0) {
 
-      StringBuilder sb = new StringBuilder();
+      StringBuilder sb = result;
+      sb.setLength(0);
 
       for (int i = 0; i < resultXML.getLength(); i++) {
 
@@ -95,69 +107,54 @@ public class XPathEvaluator {
         String nodeValue = item.getNodeValue();
 
         if (nodeValue == null) {
-          StringWriter stringWriter = new StringWriter();
-          transformer.transform(new DOMSource(item), new StreamResult(stringWriter));
-          sb.append(stringWriter.toString());
+          XmlSerializer.serialize(item, true, sb);
         } else {
           sb.append(item.getNodeValue()).append("\n");
         }
       }
-      return sb.toString();
+      String s = sb.toString();
+      if (sb.capacity() > MAX_RETAINED_CAPACITY) {
+        sb.setLength(0);
+        sb.trimToSize();
+      }
+      return s;
     } else {
       return "";
     }
   }
 
+  /**
+   * Evaluates the xpath against the XML, parsed with namespaces. If the document element is in
+   * a default namespace, the xpath names elements in it with the prefix given to {@link
+   * #setDefaultNamespacePrefix(String)}, or, when there is none, with no prefix at all: then
+   * each element name without a prefix in the xpath matches elements with that local name in
+   * any namespace.
+   */
   public Object evaluate(String xpath, String xml, QName ret)
       throws SAXException, IOException, XPathExpressionException {
-
-    Document sourceXML = docBuilder.parse(new InputSource(new CharArrayReader(xml.toCharArray())));
-
-    // hack; found no way to get it working with default namespaces
-    if (sourceXML.lookupNamespaceURI(null) != null) {
-      try {
-        DocumentBuilderFactory fac = DocumentBuilderFactory.newInstance();
-        fac.setNamespaceAware(false);
-        sourceXML =
-            fac.newDocumentBuilder().parse(new InputSource(new CharArrayReader(xml.toCharArray())));
-      } catch (ParserConfigurationException ex) {
-      }
+    Document sourceXML = getDocBuilder().parse(new InputSource(new StringReader(xml)));
+    String defaultNamespace = sourceXML.lookupNamespaceURI(null);
+    if (defaultNamespace == null) {
+      return evaluate(xpath, sourceXML, ret);
     }
-
-    // String uri = sourceXML.lookupNamespaceURI(null);
-    // if (uri !=null) {
-    //     registerNamespace("", uri);
-    // }
-    return evaluate(xpath, sourceXML, ret);
+    if (defaultNamespacePrefix == null) {
+      return evaluate(LocalNameRewriter.rewrite(xpath), sourceXML, ret);
+    }
+    Map<String, String> bound = new HashMap<String, String>(namespaces);
+    bound.put(defaultNamespacePrefix, defaultNamespace);
+    return expressionCache.get(xpath, bound).evaluate(sourceXML, ret);
   }
 
   public Object evaluate(String xpath, Document sourceXML, QName ret)
       throws SAXException, IOException, XPathExpressionException {
-    XPathFactory factory = XPathFactory.newInstance();
-    XPath xPath = factory.newXPath();
-    xPath.setNamespaceContext(new CustomNamespaceResolver(prefixi));
-    XPathExpression expr = xPath.compile(xpath);
-    return expr.evaluate(sourceXML, ret);
+    return compile(xpath).evaluate(sourceXML, ret);
   }
 
-  private static final class CustomNamespaceResolver implements NamespaceContext {
-    private Hashtable<String, String> prefixes;
-
-    public CustomNamespaceResolver(Hashtable<String, String> prefixi) {
-      prefixes = prefixi;
-    }
-
-    public String getNamespaceURI(String prefix) {
-      String ns = prefixes.get(prefix);
-      return ns;
-    }
-
-    public String getPrefix(String namespaceURI) {
-      throw new UnsupportedOperationException();
-    }
-
-    public Iterator getPrefixes(String namespaceURI) {
-      throw new UnsupportedOperationException();
-    }
+  /**
+   * Returns the compiled form of the xpath, using the namespaces registered so far. The
+   * result is cached for the calling thread, and must not be handed to another thread.
+   */
+  public XPathExpression compile(String xpath) throws XPathExpressionException {
+    return expressionCache.get(xpath, namespaces);
   }
 }
@@ -0,0 +1,236 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+/**
+ * A bounded LRU cache of compiled XPath expressions, keyed by the expression text plus the
+ * namespace bindings that were in effect when it was compiled.
+ *
+ * <p>A compiled JAXP XPathExpression must not be used by two threads at once, so each thread
+ * keeps its own LRU map, holding at most maxEntries expressions. The hit, miss and eviction
+ * counters are shared across threads.
+ *
+ * <p>An absolute path of child steps, such as /a/p:b[2]/@id, is returned as a {@link DomPath},
+ * which walks a Document directly, and uses the JAXP expression for anything else.
+ *
+ * <p>An expression that fails to compile is remembered too, in one LRU map shared by all
+ * threads and holding at most maxEntries failures, so that a bad expression sent again and
+ * again is not compiled again: the exception from the first attempt is thrown instead.
+ */
+public final class XPathExpressionCache {
+  public static final int DEFAULT_MAX_ENTRIES = 128;
+
+  private final int maxEntries;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder rejections = new LongAdder();
+
+  private final ThreadLocal<Map<Key, XPathExpression>> perThread =
+      new ThreadLocal<Map<Key, XPathExpression>>() {
+        @Override
+        protected Map<Key, XPathExpression> initialValue() {
+          return new LinkedHashMap<Key, XPathExpression>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, XPathExpression> eldest) {
+              if (size() > maxEntries) {
+                evictions.increment();
+                return true;
+              }
+              return false;
+            }
+          };
+        }
+      };
+
+  // guarded by itself
+  private final Map<Key, XPathExpressionException> failures;
+
+  public XPathExpressionCache() {
+    this(DEFAULT_MAX_ENTRIES);
+  }
+
+  public XPathExpressionCache(int maxEntries) {
+    if (maxEntries < 1) {
+      throw new IllegalArgumentException("maxEntries must be positive");
+    }
+    this.maxEntries = maxEntries;
+    this.failures =
+        new LinkedHashMap<Key, XPathExpressionException>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Key, XPathExpressionException> eldest) {
+            return size() > XPathExpressionCache.this.maxEntries;
+          }
+        };
+  }
+
+  /**
+   * Returns a compiled expression for the calling thread. The namespaces map must not be
+   * modified after it has been passed here; it becomes part of the cache key.
+   */
+  public XPathExpression get(String xpath, Map<String, String> namespaces)
+      throws XPathExpressionException {
+    Map<Key, XPathExpression> map = perThread.get();
+    Key key = new Key(xpath, namespaces);
+    XPathExpression expr = map.get(key);
+    if (expr != null) {
+      hits.increment();
+      return expr;
+    }
+    XPathExpressionException failure;
+    synchronized (failures) {
+      failure = failures.get(key);
+    }
+    if (failure != null) {
+      rejections.increment();
+      throw failure;
+    }
+    misses.increment();
+    try {
+      expr = compile(xpath, namespaces);
+    } catch (XPathExpressionException exc1) {
+      synchronized (failures) {
+        failures.put(key, exc1);
+      }
+      throw exc1;
+    }
+    map.put(key, expr);
+    return expr;
+  }
+
+  // looked up once; newXPath() is not thread safe
+  private static final XPathFactory xPathFactory = XPathFactory.newInstance();
+
+  private static XPathExpression compile(String xpath, Map<String, String> namespaces)
+      throws XPathExpressionException {
+    XPath xPath;
+    synchronized (xPathFactory) {
+      xPath = xPathFactory.newXPath();
+    }
+    xPath.setNamespaceContext(new MapNamespaceContext(namespaces));
+    XPathExpression interpreted = xPath.compile(xpath);
+    // a plain path of child steps is walked directly, when evaluated against a Document
+    XPathExpression direct = DomPath.compile(xpath, namespaces, interpreted);
+    return (direct != null) ? direct : interpreted;
+  }
+
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  public Stats getStats() {
+    return new Stats(hits.sum(), misses.sum(), evictions.sum(), rejections.sum());
+  }
+
+  public static final class Stats {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long rejections;
+
+    Stats(long hits, long misses, long evictions, long rejections) {
+      this.hits = hits;
+      this.misses = misses;
+      this.evictions = evictions;
+      this.rejections = rejections;
+    }
+
+    public long getHits() {
+      return hits;
+    }
+
+    public long getMisses() {
+      return misses;
+    }
+
+    public long getEvictions() {
+      return evictions;
+    }
+
+    /** The number of times an expression that had failed to compile was asked for again. */
+    public long getRejections() {
+      return rejections;
+    }
+
+    @Override
+    public String toString() {
+      return "hits="
+          + hits
+          + " misses="
+          + misses
+          + " evictions="
+          + evictions
+          + " rejections="
+          + rejections;
+    }
+  }
+
+  private static final class Key {
+    private final String xpath;
+    private final Map<String, String> namespaces;
+    private final int hash;
+
+    Key(String xpath, Map<String, String> namespaces) {
+      this.xpath = xpath;
+      this.namespaces = namespaces;
+      this.hash = 31 * xpath.hashCode() + namespaces.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      Key other = (Key) o;
+      return hash == other.hash
+          && xpath.equals(other.xpath)
+          && namespaces.equals(other.namespaces);
+    }
+  }
+
+  static final class MapNamespaceContext implements NamespaceContext {
+    private final Map<String, String> prefixes;
+
+    MapNamespaceContext(Map<String, String> prefixes) {
+      this.prefixes = prefixes;
+    }
+
+    public String getNamespaceURI(String prefix) {
+      return prefixes.get(prefix);
+    }
+
+    public String getPrefix(String namespaceURI) {
+      throw new UnsupportedOperationException();
+    }
+
+    public Iterator getPrefixes(String namespaceURI) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,653 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package com.google.apigee.util;
+
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.Arrays;
+import javax.xml.XMLConstants;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Result;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+/**
+ * Writes DOM nodes as XML text into a StringBuilder.
+ *
+ * <p>The output is the same, character for character, as that of the JDK's identity
+ * Transformer with the XML declaration omitted, with or without indenting, including where it
+ * puts namespace declarations, which characters it escapes, and where it starts new lines. It
+ * avoids the cost of creating a Transformer, and the writers and wrappers it uses for each
+ * node.
+ */
+final class XmlSerializer {
+  private static final int MAX_RETAINED_CAPACITY = 8192;
+
+  private static final ThreadLocal<StringBuilder> builders =
+      new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+          return new StringBuilder(1024);
+        }
+      };
+
+  private final StringBuilder out;
+  private final boolean indent;
+  private final String lineSeparator = System.getProperty("line.separator", "\n");
+  // null when every character can be written as it is
+  private CharsetEncoder encoder;
+  private boolean utf16;
+  private boolean xml11;
+
+  private int depth;
+  private boolean startTagOpen;
+  private boolean cdataOpen;
+  private boolean startNewLine;
+  private boolean prevText;
+  private boolean preserve;
+  private boolean[] preserves = new boolean[16];
+  private int preserveCount;
+  private int nonEscaping;
+
+  // the namespace declarations written so far that are in scope
+  private String[] nsPrefixes = new String[8];
+  private String[] nsURIs = new String[8];
+  private int[] nsDepths = new int[8];
+  private int nsCount;
+
+  // the declarations on the first element, which are written once its start tag is complete
+  private boolean deferring;
+  private String[] deferred;
+  private int deferredCount;
+  private String firstPrefix;
+  private String firstURI;
+
+  private XmlSerializer(StringBuilder out, boolean indent) {
+    this.out = out;
+    this.indent = indent;
+  }
+
+  // only html needs a TransformerFactory, so it is looked up on first use, then kept
+  private static final class HtmlTransformer {
+    static final TransformerFactory factory = TransformerFactory.newInstance();
+  }
+
+  /** Appends the node, which is usually an element or a document, to the builder. */
+  static void serialize(Node node, boolean indent, StringBuilder out)
+      throws TransformerException {
+    if (isHtml(firstElement(node))) {
+      // the Transformer writes these as HTML rather than as XML
+      StringWriter writer = new StringWriter();
+      Transformer transformer;
+      synchronized (HtmlTransformer.factory) {
+        transformer = HtmlTransformer.factory.newTransformer();
+      }
+      transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+      if (indent) transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+      transformer.transform(new DOMSource(node), new StreamResult(writer));
+      out.append(writer.getBuffer());
+      return;
+    }
+    XmlSerializer serializer = new XmlSerializer(out, indent);
+    if (node.getNodeType() == Node.DOCUMENT_NODE) {
+      serializer.setDocumentInfo((Document) node);
+    }
+    serializer.node(node);
+    serializer.endDocument();
+  }
+
+  static String toString(Node node, boolean indent) throws TransformerException {
+    StringBuilder sb = builders.get();
+    sb.setLength(0);
+    serialize(node, indent, sb);
+    String s = sb.toString();
+    if (sb.capacity() > MAX_RETAINED_CAPACITY) {
+      builders.remove();
+    }
+    return s;
+  }
+
+  private static Node firstElement(Node node) {
+    if (node.getNodeType() == Node.ELEMENT_NODE) {
+      return node;
+    }
+    for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child.getNodeType() == Node.ELEMENT_NODE) {
+        return child;
+      }
+    }
+    return null;
+  }
+
+  private static boolean isHtml(Node element) {
+    if (element == null) {
+      return false;
+    }
+    String uri = element.getNamespaceURI();
+    String name = element.getNodeName();
+    return (uri == null || uri.isEmpty())
+        && name.substring(name.lastIndexOf(':') + 1).equalsIgnoreCase("html");
+  }
+
+  private void setDocumentInfo(Document doc) {
+    xml11 = "1.1".equals(doc.getXmlVersion());
+    String encoding = doc.getXmlEncoding();
+    utf16 = "UTF-16".equalsIgnoreCase(encoding);
+    if (encoding != null && !encoding.regionMatches(true, 0, "UTF-", 0, 4)) {
+      try {
+        encoder = Charset.forName(encoding).newEncoder();
+      } catch (IllegalArgumentException e) {
+        // an unknown encoding is written as UTF-8
+      }
+    }
+  }
+
+  private void node(Node node) {
+    switch (node.getNodeType()) {
+      case Node.DOCUMENT_NODE:
+      case Node.DOCUMENT_FRAGMENT_NODE:
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+          node(child);
+        }
+        break;
+      case Node.ELEMENT_NODE:
+        element(node);
+        break;
+      case Node.TEXT_NODE:
+        characters(node.getNodeValue(), false);
+        break;
+      case Node.CDATA_SECTION_NODE:
+        characters(node.getNodeValue(), true);
+        if (cdataOpen) {
+          closeCdata();
+        }
+        break;
+      case Node.COMMENT_NODE:
+        comment(node.getNodeValue());
+        break;
+      case Node.PROCESSING_INSTRUCTION_NODE:
+        ProcessingInstruction pi = (ProcessingInstruction) node;
+        processingInstruction(pi.getTarget(), pi.getData());
+        break;
+      default:
+        // attributes are written with their elements; doctypes and entity references are not
+        // written at all
+        break;
+    }
+  }
+
+  private void element(Node element) {
+    String name = element.getNodeName();
+    if (cdataOpen) {
+      closeCdata();
+    }
+    if (startTagOpen) {
+      closeStartTag();
+    }
+    preserve = false;
+    if (shouldIndent() && startNewLine) {
+      indent();
+    }
+    startNewLine = true;
+    out.append('<').append(name);
+    depth++;
+    startTagOpen = true;
+    prevText = false;
+    if (deferred == null) {
+      deferring = true;
+      deferred = new String[8];
+      int colon = name.indexOf(':');
+      firstPrefix = (colon > 0) ? name.substring(0, colon) : "";
+    }
+
+    NamedNodeMap attributes = element.getAttributes();
+    int length = attributes.getLength();
+    for (int i = 0; i < length; i++) {
+      Node attribute = attributes.item(i);
+      String qname = attribute.getNodeName();
+      if (qname.startsWith("xmlns")) {
+        int colon = qname.lastIndexOf(':');
+        defer((colon > 0) ? qname.substring(colon + 1) : "", attribute.getNodeValue());
+      }
+    }
+    int generated = 0;
+    for (int i = 0; i < length; i++) {
+      Attr attribute = (Attr) attributes.item(i);
+      String qname = attribute.getNodeName();
+      if (qname.startsWith("xmlns")) {
+        continue;
+      }
+      String uri = attribute.getNamespaceURI();
+      if (uri != null && uri.length() != 0) {
+        int colon = qname.lastIndexOf(':');
+        String prefix;
+        if (colon > 0) {
+          prefix = qname.substring(0, colon);
+        } else if (XMLConstants.XML_NS_URI.equals(uri)) {
+          prefix = "xml";
+        } else {
+          prefix = "ns" + generated++;
+        }
+        defer(prefix, uri);
+        undefer();
+        String bound = lookupNamespace(prefix);
+        String localName = qname.substring(colon + 1);
+        if (bound != null && bound.length() == 0) {
+          attribute(localName, attribute.getValue());
+        } else {
+          attribute(prefix + ':' + localName, attribute.getValue());
+        }
+      } else {
+        undefer();
+        attribute(qname, attribute.getValue());
+      }
+    }
+    String uri = element.getNamespaceURI();
+    if (uri != null) {
+      int colon = name.lastIndexOf(':');
+      defer((colon > 0) ? name.substring(0, colon) : "", uri);
+    } else if (element.getLocalName() != null) {
+      defer("", "");
+    }
+    undefer();
+
+    for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+      node(child);
+    }
+
+    while (nsCount > 0 && nsDepths[nsCount - 1] == depth) {
+      nsCount--;
+    }
+    if (startTagOpen) {
+      out.append("/>");
+      startTagOpen = false;
+    } else {
+      if (cdataOpen) {
+        closeCdata();
+      }
+      if (shouldIndent()) {
+        indent();
+      }
+      out.append("</").append(name).append('>');
+      if (indent) {
+        preserve = (preserveCount == 0) ? false : preserves[--preserveCount];
+      }
+    }
+    prevText = false;
+    depth--;
+  }
+
+  private String lookupNamespace(String prefix) {
+    if (prefix.startsWith("xml")) {
+      return prefix.equals("xml") ? XMLConstants.XML_NS_URI : null;
+    }
+    for (int i = nsCount - 1; i >= 0; i--) {
+      if (nsPrefixes[i].equals(prefix)) {
+        return nsURIs[i];
+      }
+    }
+    return prefix.isEmpty() ? "" : null;
+  }
+
+  private void defer(String prefix, String uri) {
+    if (!deferring) {
+      declare(prefix, uri);
+      return;
+    }
+    if (deferredCount == deferred.length) {
+      deferred = Arrays.copyOf(deferred, deferredCount * 2);
+    }
+    deferred[deferredCount++] = prefix;
+    deferred[deferredCount++] = uri;
+    if (firstURI == null && prefix.equals(firstPrefix)) {
+      firstURI = uri;
+    }
+  }
+
+  // writes the declarations held back for the first element, the one for its own prefix first
+  private void undefer() {
+    if (!deferring) {
+      return;
+    }
+    deferring = false;
+    if (firstURI != null && !firstURI.isEmpty() && !firstURI.equals(lookupNamespace(firstPrefix))) {
+      declare(firstPrefix, firstURI);
+    }
+    for (int i = 0; i < deferredCount; i += 2) {
+      declare(deferred[i], deferred[i + 1]);
+    }
+  }
+
+  // declares the namespace on the open element, unless it is already in scope
+  private void declare(String prefix, String uri) {
+    if (prefix.startsWith("xml")) {
+      return;
+    }
+    int i = nsCount - 1;
+    while (i >= 0 && !nsPrefixes[i].equals(prefix)) {
+      i--;
+    }
+    if ((i >= 0)
+        ? (uri.equals(nsURIs[i]) || nsDepths[i] == depth)
+        : (prefix.isEmpty() && uri.isEmpty())) {
+      return;
+    }
+    if (nsCount == nsPrefixes.length) {
+      nsPrefixes = Arrays.copyOf(nsPrefixes, nsCount * 2);
+      nsURIs = Arrays.copyOf(nsURIs, nsCount * 2);
+      nsDepths = Arrays.copyOf(nsDepths, nsCount * 2);
+    }
+    nsPrefixes[nsCount] = prefix;
+    nsURIs[nsCount] = uri;
+    nsDepths[nsCount] = depth;
+    nsCount++;
+    if (prefix.isEmpty()) {
+      attribute("xmlns", uri);
+    } else if (!uri.isEmpty()) {
+      attribute("xmlns:" + prefix, uri);
+    }
+  }
+
+  private void attribute(String qname, String value) {
+    out.append(' ').append(qname).append("=\"");
+    attributeValue(value);
+    out.append('"');
+  }
+
+  private void attributeValue(String value) {
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '&':
+          out.append("&amp;");
+          break;
+        case '<':
+          out.append("&lt;");
+          break;
+        case '>':
+          out.append("&gt;");
+          break;
+        case '"':
+          out.append("&quot;");
+          break;
+        case '\t':
+        case '\n':
+        case '\r':
+          reference(c);
+          break;
+        default:
+          if (Character.isHighSurrogate(c) && i + 1 < length) {
+            surrogates(c, value.charAt(++i));
+          } else if (isPlain(c)) {
+            out.append(c);
+          } else {
+            reference(c);
+          }
+      }
+    }
+  }
+
+  private void closeStartTag() {
+    out.append('>');
+    startTagOpen = false;
+    if (indent) {
+      prevText = false;
+      if (preserveCount == preserves.length) {
+        preserves = Arrays.copyOf(preserves, preserveCount * 2);
+      }
+      preserves[preserveCount++] = preserve;
+    }
+  }
+
+  private void closeCdata() {
+    out.append("]]>");
+    cdataOpen = false;
+  }
+
+  private boolean shouldIndent() {
+    return indent && !preserve && !prevText && depth > 0;
+  }
+
+  private void indent() {
+    if (startNewLine) {
+      out.append(lineSeparator);
+    }
+  }
+
+  private void characters(String text, boolean cdata) {
+    int length = text.length();
+    if (length == 0) {
+      return;
+    }
+    if (startTagOpen) {
+      closeStartTag();
+    }
+    if (cdata) {
+      cdata(text);
+      return;
+    }
+    if (cdataOpen) {
+      closeCdata();
+    }
+    if (nonEscaping > 0) {
+      out.append(text);
+      preserve = true;
+      return;
+    }
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+        preserve = true;
+        break;
+      }
+    }
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      switch (c) {
+        case '&':
+          out.append("&amp;");
+          break;
+        case '<':
+          out.append("&lt;");
+          break;
+        case '>':
+          out.append("&gt;");
+          break;
+        case '\n':
+          out.append(lineSeparator);
+          break;
+        case '\r':
+          reference(c);
+          break;
+        default:
+          if (Character.isHighSurrogate(c) && i + 1 < length) {
+            surrogates(c, text.charAt(++i));
+          } else if (mustReference(c)) {
+            reference(c);
+          } else {
+            out.append(c);
+          }
+      }
+    }
+    prevText = true;
+  }
+
+  private void cdata(String text) {
+    preserve = true;
+    int length = text.length();
+    if (!cdataOpen && isPlain(text.charAt(0))) {
+      out.append("<![CDATA[");
+      cdataOpen = true;
+    }
+    if (nonEscaping > 0) {
+      out.append(text);
+    } else {
+      cdataContent(text);
+    }
+    if (cdataOpen && text.charAt(length - 1) == ']') {
+      closeCdata();
+    }
+  }
+
+  private void cdataContent(String text) {
+    int length = text.length();
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (c == '\n') {
+        out.append(lineSeparator);
+      } else if (!isPlain(c)) {
+        if (Character.isHighSurrogate(c) && i + 1 < length) {
+          char low = text.charAt(++i);
+          if (encoder == null) {
+            out.append(c).append(low);
+          } else {
+            reference(Character.toCodePoint(c, low));
+          }
+        } else {
+          reference(c);
+        }
+      } else if (c == ']' && i + 2 < length && text.charAt(i + 1) == ']'
+          && text.charAt(i + 2) == '>') {
+        out.append("]]]]><![CDATA[>");
+        i += 2;
+      } else {
+        if (!cdataOpen) {
+          out.append("<![CDATA[");
+          cdataOpen = true;
+        }
+        out.append(c);
+      }
+    }
+  }
+
+  private void comment(String text) {
+    if (startTagOpen) {
+      closeStartTag();
+    }
+    if (cdataOpen) {
+      closeCdata();
+    }
+    if (shouldIndent()) {
+      indent();
+    }
+    out.append("<!--");
+    int length = text.length();
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (c == '-' && i > 0 && text.charAt(i - 1) == '-') {
+        out.append(' ');
+      }
+      out.append(c);
+    }
+    if (length > 0 && text.charAt(length - 1) == '-') {
+      out.append(' ');
+    }
+    out.append("-->");
+    startNewLine = true;
+  }
+
+  private void processingInstruction(String target, String data) {
+    if (startTagOpen) {
+      closeStartTag();
+    }
+    if (cdataOpen) {
+      closeCdata();
+    }
+    if (target.equals(Result.PI_DISABLE_OUTPUT_ESCAPING)) {
+      nonEscaping++;
+      return;
+    }
+    if (target.equals(Result.PI_ENABLE_OUTPUT_ESCAPING)) {
+      if (nonEscaping > 0) {
+        nonEscaping--;
+      }
+      return;
+    }
+    if (shouldIndent()) {
+      indent();
+    }
+    out.append("<?").append(target);
+    if (data.length() > 0 && !Character.isSpaceChar(data.charAt(0))) {
+      out.append(' ');
+    }
+    int end = data.indexOf("?>");
+    if (end >= 0) {
+      out.append(data, 0, end).append("? >").append(data, end + 2, data.length());
+    } else {
+      out.append(data);
+    }
+    out.append("?>");
+    startNewLine = true;
+  }
+
+  private void endDocument() {
+    if (startTagOpen) {
+      closeStartTag();
+    }
+    if (cdataOpen) {
+      closeCdata();
+    }
+    if (indent && !prevText) {
+      out.append(lineSeparator);
+    }
+  }
+
+  // true for a character that can be written as it is, in the encoding of the document
+  private boolean isPlain(char c) {
+    if (c < 127) {
+      return c >= 0x20 || c == '\n' || c == '\r' || c == '\t';
+    }
+    if (Character.isSurrogate(c)) {
+      return utf16;
+    }
+    return encoder == null || encoder.canEncode(c);
+  }
+
+  private void surrogates(char high, char low) {
+    if (isPlain(high)) {
+      out.append(high).append(low);
+    } else {
+      reference(Character.toCodePoint(high, low));
+    }
+  }
+
+  // true for a character in text that must be written as a reference
+  private boolean mustReference(char c) {
+    if ((c < 0x20 && c != '\t' && c != '\n' && c != '\r') || (c >= 0x7F && c <= 0x9F)) {
+      return true;
+    }
+    if (xml11 && (c == 0x85 || c == 0x2028)) {
+      return true;
+    }
+    return !isPlain(c);
+  }
+
+  private void reference(int codePoint) {
+    if (cdataOpen) {
+      closeCdata();
+    }
+    out.append("&#").append(codePoint).append(';');
+  }
+}
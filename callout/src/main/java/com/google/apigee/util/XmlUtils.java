@@ -18,58 +18,269 @@ import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
-import java.io.StringWriter;
+import java.util.concurrent.atomic.LongAdder;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 import org.w3c.dom.Document;
 import org.xml.sax.EntityResolver;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
 
 public class XmlUtils {
 
-  private static DocumentBuilder getBuilder() throws ParserConfigurationException {
-    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-    factory.setNamespaceAware(true);
-    factory.setFeature("http://apache.org/xml/features/nonvalidating/load-dtd-grammar", false);
-    factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
-
-    DocumentBuilder builder = factory.newDocumentBuilder();
-    // prevent DTD entities from being resolved.
-    builder.setEntityResolver(
-        new EntityResolver() {
-          @Override
-          public InputSource resolveEntity(String publicId, String systemId)
-              throws SAXException, IOException {
-            return new InputSource(new StringReader(""));
-          }
-        });
+  // prevent DTD entities from being resolved.
+  private static final EntityResolver noEntityResolver =
+      new EntityResolver() {
+        @Override
+        public InputSource resolveEntity(String publicId, String systemId)
+            throws SAXException, IOException {
+          return new InputSource(new StringReader(""));
+        }
+      };
 
+  private static final String DEFER_NODE_EXPANSION =
+      "http://apache.org/xml/features/dom/defer-node-expansion";
+
+  // One configured builder per thread, for each node expansion setting. A builder is checked
+  // out for the duration of a parse, and reset() before it is returned, so it never carries
+  // state from one parse to the next.
+  private static final ThreadLocal<DocumentBuilder[]> idleBuilders =
+      new ThreadLocal<DocumentBuilder[]>() {
+        @Override
+        protected DocumentBuilder[] initialValue() {
+          return new DocumentBuilder[3];
+        }
+      };
+  private static final LongAdder buildersCreated = new LongAdder();
+  private static final LongAdder buildersReused = new LongAdder();
+
+  // 0: the parser's default, 1: deferred, 2: fully expanded
+  private static int builderSlot(Boolean deferNodeExpansion) {
+    if (deferNodeExpansion == null) return 0;
+    return deferNodeExpansion ? 1 : 2;
+  }
+
+  // Looking up a JAXP factory goes through system properties and the ServiceLoader, so each
+  // is configured once, per slot, and kept. A factory is not thread safe, hence the locks.
+  private static final DocumentBuilderFactory[] builderFactories = new DocumentBuilderFactory[3];
+  private static SAXParserFactory saxParserFactory;
+  private static DocumentBuilderFactory plainFactory;
+
+  /**
+   * Returns a new builder that is aware of namespaces and otherwise has the JAXP defaults, from
+   * a factory shared by all callers.
+   */
+  static DocumentBuilder newNamespaceAwareBuilder() throws ParserConfigurationException {
+    synchronized (builderFactories) {
+      if (plainFactory == null) {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        plainFactory = factory;
+      }
+      return plainFactory.newDocumentBuilder();
+    }
+  }
+
+  private static DocumentBuilder newBuilder(Boolean deferNodeExpansion)
+      throws ParserConfigurationException {
+    synchronized (builderFactories) {
+      int slot = builderSlot(deferNodeExpansion);
+      DocumentBuilderFactory factory = builderFactories[slot];
+      if (factory == null) {
+        factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setFeature(
+            "http://apache.org/xml/features/nonvalidating/load-dtd-grammar", false);
+        factory.setFeature(
+            "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        if (deferNodeExpansion != null) {
+          factory.setFeature(DEFER_NODE_EXPANSION, deferNodeExpansion);
+        }
+        builderFactories[slot] = factory;
+      }
+      buildersCreated.increment();
+      return factory.newDocumentBuilder();
+    }
+  }
+
+  private static DocumentBuilder checkoutBuilder(Boolean deferNodeExpansion)
+      throws ParserConfigurationException {
+    DocumentBuilder[] idle = idleBuilders.get();
+    int slot = builderSlot(deferNodeExpansion);
+    DocumentBuilder builder = idle[slot];
+    if (builder == null) {
+      builder = newBuilder(deferNodeExpansion);
+    } else {
+      idle[slot] = null;
+      buildersReused.increment();
+    }
+    // reset() restores the resolver the builder was created with, so set it every time.
+    builder.setEntityResolver(noEntityResolver);
     return builder;
   }
 
+  private static void returnBuilder(DocumentBuilder builder, Boolean deferNodeExpansion) {
+    builder.reset();
+    idleBuilders.get()[builderSlot(deferNodeExpansion)] = builder;
+  }
+
+  private static final ThreadLocal<SAXParser> idleSaxParser = new ThreadLocal<SAXParser>();
+
+  private static SAXParser checkoutSaxParser() throws ParserConfigurationException, SAXException {
+    SAXParser parser = idleSaxParser.get();
+    if (parser != null) {
+      idleSaxParser.set(null);
+      return parser;
+    }
+    synchronized (builderFactories) {
+      if (saxParserFactory == null) {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
+        factory.setFeature("http://xml.org/sax/features/xmlns-uris", true);
+        factory.setFeature(
+            "http://apache.org/xml/features/nonvalidating/load-dtd-grammar", false);
+        factory.setFeature(
+            "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        saxParserFactory = factory;
+      }
+      return saxParserFactory.newSAXParser();
+    }
+  }
+
+  private static void returnSaxParser(SAXParser parser) {
+    parser.reset();
+    idleSaxParser.set(parser);
+  }
+
+  public static PoolStats getBuilderPoolStats() {
+    return new PoolStats(buildersCreated.sum(), buildersReused.sum());
+  }
+
+  public static final class PoolStats {
+    private final long created;
+    private final long reused;
+
+    PoolStats(long created, long reused) {
+      this.created = created;
+      this.reused = reused;
+    }
+
+    public long getCreated() {
+      return created;
+    }
+
+    public long getReused() {
+      return reused;
+    }
+
+    @Override
+    public String toString() {
+      return "created=" + created + " reused=" + reused;
+    }
+  }
+
   public static Document parseXml(InputStream in)
       throws IOException, SAXException, ParserConfigurationException {
-    DocumentBuilder builder = getBuilder();
-    InputStream bin = new BufferedInputStream(in);
-    Document ret = builder.parse(new InputSource(bin));
-    return ret;
+    return parseXml(new InputSource(in));
   }
 
   public static Document parseXml(String s)
       throws IOException, SAXException, ParserConfigurationException {
-    DocumentBuilder builder = getBuilder();
     InputSource is = new InputSource();
     is.setCharacterStream(new StringReader(s));
-    Document ret = builder.parse(is);
-    return ret;
+    return parseXml(is);
+  }
+
+  public static Document parseXml(InputSource is)
+      throws IOException, SAXException, ParserConfigurationException {
+    return parseXml(is, ParseOptions.DEFAULT);
+  }
+
+  public static Document parseXml(InputSource is, ParseOptions options)
+      throws IOException, SAXException, ParserConfigurationException {
+    buffer(is);
+    ParseLimits limits = options.getLimits();
+    limits.limitBytes(is);
+    if (options.getProjection() != null || limits.limitsStructure()) {
+      return parseProjected(is, options.getProjection(), limits);
+    }
+    Boolean deferNodeExpansion = options.getDeferNodeExpansion();
+    DocumentBuilder builder = checkoutBuilder(deferNodeExpansion);
+    try {
+      return builder.parse(is);
+    } finally {
+      returnBuilder(builder, deferNodeExpansion);
+    }
+  }
+
+  // A stream that supports mark, like a BufferedInputStream or one over an array or a buffer,
+  // already holds its bytes in memory, and is not wrapped again.
+  private static void buffer(InputSource is) {
+    InputStream in = is.getByteStream();
+    if (is.getCharacterStream() == null && in != null && !in.markSupported()) {
+      is.setByteStream(new BufferedInputStream(in));
+    }
+  }
+
+  private static Document parseProjected(
+      InputSource is, DocumentProjection projection, ParseLimits limits)
+      throws IOException, SAXException, ParserConfigurationException {
+    Document document;
+    DocumentBuilder builder = checkoutBuilder(null);
+    try {
+      document = builder.newDocument();
+    } finally {
+      returnBuilder(builder, null);
+    }
+    ProjectingDomBuilder handler = new ProjectingDomBuilder(document, projection);
+    parseWithHandler(is, handler, limits);
+    return handler.getDocument();
+  }
+
+  /**
+   * Parses the XML into a {@link CompactDocument}, which takes a fraction of the memory of a
+   * DOM, and can be read by several threads at once.
+   */
+  public static CompactDocument parseCompact(InputSource is)
+      throws IOException, SAXException, ParserConfigurationException {
+    return parseCompact(is, ParseLimits.NONE);
+  }
+
+  public static CompactDocument parseCompact(InputSource is, ParseLimits limits)
+      throws IOException, SAXException, ParserConfigurationException {
+    buffer(is);
+    limits.limitBytes(is);
+    CompactDocumentBuilder handler = new CompactDocumentBuilder();
+    parseWithHandler(is, handler, limits);
+    return handler.getDocument();
+  }
+
+  private static <H extends DefaultHandler & LexicalHandler> void parseWithHandler(
+      InputSource is, H handler, ParseLimits limits)
+      throws IOException, SAXException, ParserConfigurationException {
+    if (limits.limitsStructure()) {
+      parseWithHandler(is, new LimitingHandler<H>(handler, limits), ParseLimits.NONE);
+      return;
+    }
+    SAXParser parser = checkoutSaxParser();
+    try {
+      XMLReader reader = parser.getXMLReader();
+      reader.setEntityResolver(noEntityResolver);
+      reader.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+      reader.setContentHandler(handler);
+      reader.setErrorHandler(handler);
+      reader.parse(is);
+    } finally {
+      returnSaxParser(parser);
+    }
   }
 
   public static String toString(Document doc) throws TransformerException {
@@ -77,14 +288,6 @@ public class XmlUtils {
   }
 
   public static String toString(Document doc, boolean pretty) throws TransformerException {
-    DOMSource domSource = new DOMSource(doc);
-    StringWriter writer = new StringWriter();
-    StreamResult result = new StreamResult(writer);
-    TransformerFactory tf = TransformerFactory.newInstance();
-    Transformer transformer = tf.newTransformer();
-    transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-    if (pretty) transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-    transformer.transform(domSource, result);
-    return writer.toString();
+    return XmlSerializer.toString(doc, pretty);
   }
 }
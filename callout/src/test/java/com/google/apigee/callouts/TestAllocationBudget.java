@@ -0,0 +1,226 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import com.apigee.flow.execution.ExecutionContext;
+import com.apigee.flow.execution.ExecutionResult;
+import com.apigee.flow.message.Message;
+import com.apigee.flow.message.MessageContext;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import mockit.Mock;
+import mockit.MockUp;
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Measures the bytes allocated by the calling thread in each ExtractXpath.execute, after a
+ * warm-up, and fails when that is over the budget for the configuration. Each budget is about
+ * half again what the execution needed when it was set; lower it when an allocation is
+ * removed, and raise it only for a reason. Skipped on a JVM that cannot count the bytes a
+ * thread allocates.
+ */
+public class TestAllocationBudget {
+  private static final int WARMUP = 3000;
+  private static final int MEASURED = 1000;
+
+  // the bytes allocated in each execution, on the small and on the large document
+  private static final long DOM_SMALL = 60_000;
+  private static final long DOM_LARGE = 650_000;
+  private static final long STREAM_SMALL = 80_000;
+  private static final long STREAM_LARGE = 80_000;
+  private static final long COMPACT_SMALL = 80_000;
+  private static final long COMPACT_LARGE = 730_000;
+  private static final long PROJECTION_SMALL = 45_000;
+  private static final long PROJECTION_LARGE = 500_000;
+  private static final long INDEX_LARGE = 720_000;
+  private static final long TEMPLATED_SMALL = 70_000;
+
+  MessageContext msgCtxt;
+  ExecutionContext exeCtxt;
+
+  @BeforeMethod()
+  public void beforeMethod() {
+    msgCtxt =
+        new MockUp<MessageContext>() {
+          private final Map<String, Object> variables = new HashMap<String, Object>();
+
+          @Mock()
+          public Object getVariable(final String name) {
+            return variables.get(name);
+          }
+
+          @Mock()
+          public boolean setVariable(final String name, final Object value) {
+            variables.put(name, value);
+            return true;
+          }
+
+          @Mock()
+          public boolean removeVariable(final String name) {
+            variables.remove(name);
+            return true;
+          }
+
+          @Mock()
+          public Message getMessage() {
+            return null;
+          }
+        }.getMockInstance();
+
+    exeCtxt = new MockUp<ExecutionContext>() {}.getMockInstance();
+  }
+
+  // like sample-data/order.xml, with the given number of article lines
+  private static String order(int lines) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<?xml version='1.0' encoding='UTF-8'?>\n");
+    sb.append("<tx:order xmlns:tx='https://example.com/20190122/tx'");
+    sb.append(" xmlns='https://example.com/20190122/entities'>\n");
+    sb.append("  <customer customerNumber='0815A4711'>\n");
+    sb.append("    <name>Michael Sonntag</name>\n");
+    sb.append("    <address><street>Altenbergerstr. 69</street><ZIP>4040</ZIP>");
+    sb.append("<city>Linz</city></address>\n");
+    sb.append("  </customer>\n  <articles>\n");
+    for (int i = 0; i < lines; i++) {
+      sb.append("    <line>\n");
+      sb.append("      <quantity unit='piece'>").append(i + 1).append("</quantity>\n");
+      sb.append("      <product productNumber='").append(9900 + i).append("'>Widget ");
+      sb.append(i).append("</product>\n");
+      sb.append("      <price currency='EUR'>").append(i % 10).append(".10</price>\n");
+      sb.append("    </line>\n");
+    }
+    sb.append("  </articles>\n");
+    sb.append("  <payment type='CC'>\n");
+    sb.append("    <creditcard issuer='Mastercard'><number>5201 2345 6789 0123</number>");
+    sb.append("<expiryDate>2006-04-30</expiryDate></creditcard>\n");
+    sb.append("  </payment>\n</tx:order>\n");
+    return sb.toString();
+  }
+
+  private static final String small = order(2);
+  private static final String large = order(200);
+
+  private static Map<String, String> policy() {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("source", "message.content");
+    props.put("xmlns:tx", "https://example.com/20190122/tx");
+    props.put("xmlns:e", "https://example.com/20190122/entities");
+    props.put("xpath:customer", "/tx:order/e:customer/e:name/text()");
+    props.put("xpath:number", "/tx:order/e:payment/e:creditcard/e:number/text()");
+    props.put("xpath:type", "/tx:order/e:payment/@type");
+    props.put("xpath:first", "/tx:order/e:articles/e:line/e:product/@productNumber");
+    props.put("xpath-mode:first", "first");
+    props.put("xpath:lines", "/tx:order/e:articles/e:line");
+    props.put("xpath-mode:lines", "count");
+    return props;
+  }
+
+  private static com.sun.management.ThreadMXBean threadBean() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+      throw new SkipException("this JVM does not count allocated bytes");
+    }
+    com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+    if (!threadBean.isThreadAllocatedMemorySupported()) {
+      throw new SkipException("this JVM does not count allocated bytes");
+    }
+    if (!threadBean.isThreadAllocatedMemoryEnabled()) {
+      threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+    return threadBean;
+  }
+
+  private long bytesPerExecution(Map<String, String> props, String xml) {
+    com.sun.management.ThreadMXBean bean = threadBean();
+    ExtractXpath callout = new ExtractXpath(props);
+    msgCtxt.setVariable("message.content", xml);
+    msgCtxt.setVariable("customer_path", "/tx:order/e:customer/e:name/text()");
+    for (int i = 0; i < WARMUP; i++) {
+      ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+      if (i == 0) {
+        Assert.assertEquals(result, ExecutionResult.SUCCESS);
+        Assert.assertNull(msgCtxt.getVariable("xpath_error"));
+        Assert.assertEquals(msgCtxt.getVariable("customer"), "Michael Sonntag");
+      }
+    }
+    long thread = Thread.currentThread().getId();
+    long before = bean.getThreadAllocatedBytes(thread);
+    for (int i = 0; i < MEASURED; i++) {
+      callout.execute(msgCtxt, exeCtxt);
+    }
+    return (bean.getThreadAllocatedBytes(thread) - before) / MEASURED;
+  }
+
+  private void assertWithinBudget(
+      String label, Map<String, String> props, String xml, long budget) {
+    long bytes = bytesPerExecution(props, xml);
+    System.out.printf("%-18s %9d bytes per execution (budget %d)%n", label, bytes, budget);
+    Assert.assertTrue(
+        bytes <= budget, label + ": " + bytes + " bytes per execution, over the budget " + budget);
+  }
+
+  @Test
+  public void test_Dom() {
+    assertWithinBudget("dom small", policy(), small, DOM_SMALL);
+    assertWithinBudget("dom large", policy(), large, DOM_LARGE);
+  }
+
+  @Test
+  public void test_Stream() {
+    Map<String, String> props = policy();
+    props.put("engine", "stream");
+    assertWithinBudget("stream small", props, small, STREAM_SMALL);
+    assertWithinBudget("stream large", props, large, STREAM_LARGE);
+  }
+
+  @Test
+  public void test_CompactDom() {
+    Map<String, String> props = policy();
+    props.put("compact-dom", "true");
+    assertWithinBudget("compact-dom small", props, small, COMPACT_SMALL);
+    assertWithinBudget("compact-dom large", props, large, COMPACT_LARGE);
+  }
+
+  @Test
+  public void test_Projection() {
+    Map<String, String> props = policy();
+    props.put("projection", "true");
+    assertWithinBudget("projection small", props, small, PROJECTION_SMALL);
+    assertWithinBudget("projection large", props, large, PROJECTION_LARGE);
+  }
+
+  @Test
+  public void test_ElementIndex() {
+    Map<String, String> props = policy();
+    props.put("element-index", "true");
+    props.put("xpath:price", "//e:line[2]/e:price");
+    assertWithinBudget("element-index", props, large, INDEX_LARGE);
+  }
+
+  // a new evaluator, and the xpath resolved, in each execution
+  @Test
+  public void test_Templated() {
+    Map<String, String> props = policy();
+    props.put("xmlns:e", "{xmlns_e}");
+    props.put("xpath:customer", "{customer_path}");
+    msgCtxt.setVariable("xmlns_e", "https://example.com/20190122/entities");
+    assertWithinBudget("templated small", props, small, TEMPLATED_SMALL);
+  }
+}
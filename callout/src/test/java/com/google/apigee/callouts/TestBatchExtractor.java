@@ -0,0 +1,115 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestBatchExtractor {
+
+  private static final int RECORDS = 2000;
+
+  private static byte[] orders() {
+    StringBuilder sb = new StringBuilder("<?xml version='1.0'?>\n");
+    sb.append("<orders xmlns='urn:o' xmlns:p='urn:p'><header><order id='header'/></header>\n");
+    for (int i = 0; i < RECORDS; i++) {
+      sb.append("<order id='").append(i).append("'>");
+      for (int j = 0; j < i % 3; j++) {
+        sb.append("<sku>S").append(j).append("</sku>");
+      }
+      if (i % 2 == 0) {
+        sb.append("<p:note>a,\"b\"<![CDATA[ & c]]></p:note>");
+      }
+      sb.append("<price>").append(i).append(".5</price></order>\n");
+    }
+    return sb.append("</orders>").toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static Map<String, String> properties() {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("xmlns:o", "urn:o");
+    props.put("xmlns:p", "urn:p");
+    props.put("record-path", "/o:orders/o:order");
+    props.put("xpath:a_id", "/o:order/@id");
+    props.put("xpath:b_skus", "/o:order/o:sku/text()");
+    props.put("xpath-mode:b_skus", "all");
+    props.put("xpath:c_note", "/o:order/p:note");
+    props.put("xpath:d_total", "sum(//o:price) * 2");
+    props.put("xpath-type:d_total", "number");
+    props.put("parallelism", "4");
+    props.put("max-in-flight", "3");
+    return props;
+  }
+
+  @Test
+  public void test_Jsonl() throws Exception {
+    StringWriter out = new StringWriter();
+    long records =
+        new BatchExtractor(properties()).extract(new ByteArrayInputStream(orders()), out);
+    Assert.assertEquals(records, RECORDS);
+    String[] lines = out.toString().split("\n");
+    Assert.assertEquals(lines.length, RECORDS);
+    Assert.assertEquals(
+        lines[0], "{\"a_id\":\"0\",\"b_skus\":[],\"c_note\":\"a,\\\"b\\\" & c\",\"d_total\":1}");
+    Assert.assertEquals(
+        lines[1], "{\"a_id\":\"1\",\"b_skus\":[\"S0\"],\"c_note\":null,\"d_total\":3}");
+    for (int i = 0; i < RECORDS; i++) {
+      Assert.assertTrue(lines[i].startsWith("{\"a_id\":\"" + i + "\","), lines[i]);
+    }
+  }
+
+  @Test
+  public void test_Csv() throws Exception {
+    Map<String, String> props = properties();
+    props.put("format", "csv");
+    props.put("xpath-delimiter:b_skus", ";");
+    StringWriter out = new StringWriter();
+    new BatchExtractor(props).extract(new ByteArrayInputStream(orders()), out);
+    String[] lines = out.toString().split("\n");
+    Assert.assertEquals(lines.length, RECORDS + 1);
+    Assert.assertEquals(lines[0], "a_id,b_skus,c_note,d_total");
+    Assert.assertEquals(lines[1], "0,,\"a,\"\"b\"\" & c\",1");
+    Assert.assertEquals(lines[3], "2,S0;S1,\"a,\"\"b\"\" & c\",5");
+  }
+
+  @Test
+  public void test_InvalidConfiguration() throws Exception {
+    Map<String, String> props = properties();
+    props.put("record-path", "//o:order");
+    try {
+      new BatchExtractor(props).extract(new ByteArrayInputStream(orders()), new StringWriter());
+      Assert.fail("expected an exception");
+    } catch (IllegalArgumentException exc1) {
+      Assert.assertEquals(
+          exc1.getMessage(),
+          "record path must be an absolute path of child element steps: //o:order");
+    }
+    props = properties();
+    props.put("xpath:a_id", "{idpath}");
+    try {
+      new BatchExtractor(props);
+      Assert.fail("expected an exception");
+    } catch (IllegalStateException exc1) {
+      Assert.assertEquals(
+          exc1.getMessage(), "xpaths and namespaces must not refer to variables");
+    }
+  }
+}
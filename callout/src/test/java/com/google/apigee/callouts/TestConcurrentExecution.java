@@ -0,0 +1,277 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import com.apigee.flow.execution.ExecutionContext;
+import com.apigee.flow.execution.ExecutionResult;
+import com.apigee.flow.message.Message;
+import com.apigee.flow.message.MessageContext;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import mockit.Mock;
+import mockit.MockUp;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Runs one ExtractXpath instance from 1, 2, 4 and 8 threads at once, as Apigee does, each
+ * thread with its own MessageContext and its own documents, and checks every variable of every
+ * execution. A value from another thread's document, or from an earlier execution, fails the
+ * test. Prints the executions per second at each thread count, and the speedup over one thread.
+ */
+public class TestConcurrentExecution {
+  private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+  private static final int EXECUTIONS = 300; // by each thread, at each thread count
+  private static final int DOCUMENTS = 16; // distinct documents for each thread
+  private static final String NS = "urn:example:order";
+
+  private final ExecutionContext exeCtxt = new MockUp<ExecutionContext>() {}.getMockInstance();
+
+  // Not shared between threads, so a plain map will do.
+  private static MessageContext newContext() {
+    return new MockUp<MessageContext>() {
+      private final Map<String, Object> variables = new HashMap<String, Object>();
+
+      @Mock()
+      public Object getVariable(final String name) {
+        return variables.get(name);
+      }
+
+      @Mock()
+      public boolean setVariable(final String name, final Object value) {
+        variables.put(name, value);
+        return true;
+      }
+
+      @Mock()
+      public boolean removeVariable(final String name) {
+        variables.remove(name);
+        return true;
+      }
+
+      @Mock()
+      public Message getMessage() {
+        return null;
+      }
+    }.getMockInstance();
+  }
+
+  private static int lineCount(int thread, int doc) {
+    return 1 + (thread + doc) % 4;
+  }
+
+  private static String sku(int thread, int doc, int line) {
+    return "S" + thread + "-" + doc + "-" + line;
+  }
+
+  private static String order(int thread, int doc) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<o:order xmlns:o='").append(NS).append("' id='T").append(thread);
+    sb.append('-').append(doc).append("'><o:customer><o:name>customer ").append(thread);
+    sb.append('-').append(doc).append("</o:name></o:customer>");
+    for (int line = 1; line <= lineCount(thread, doc); line++) {
+      sb.append("<o:line sku='").append(sku(thread, doc, line)).append("'><o:qty>");
+      sb.append(line).append("</o:qty></o:line>");
+    }
+    return sb.append("</o:order>").toString();
+  }
+
+  private static Map<String, Object> expected(int thread, int doc) {
+    int lines = lineCount(thread, doc);
+    Map<String, Object> expected = new HashMap<String, Object>();
+    expected.put("id", "T" + thread + "-" + doc);
+    expected.put("name", "customer " + thread + "-" + doc);
+    expected.put("lines", lines);
+    expected.put("first", sku(thread, doc, 1));
+    expected.put("last", sku(thread, doc, lines));
+    StringBuilder skus = new StringBuilder();
+    for (int line = 1; line <= lines; line++) {
+      if (line > 1) skus.append(',');
+      skus.append(sku(thread, doc, line));
+    }
+    expected.put("skus", skus.toString());
+    expected.put("quantity", (double) (lines * (lines + 1) / 2));
+    return expected;
+  }
+
+  // The xpaths the streaming engine can answer, and then some it cannot.
+  private static Map<String, String> policy(boolean streamable) {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("source", "message.content");
+    props.put("xmlns:o", NS);
+    props.put("xpath:id", "/o:order/@id");
+    props.put("xpath:name", "/o:order/o:customer/o:name");
+    props.put("xpath-type:name", "node");
+    props.put("xpath:lines", "/o:order/o:line");
+    props.put("xpath-mode:lines", "count");
+    props.put("xpath:first", "/o:order/o:line/@sku");
+    props.put("xpath-mode:first", "first");
+    if (!streamable) {
+      props.put("xpath:skus", "//o:line/@sku");
+      props.put("xpath-mode:skus", "join");
+      props.put("xpath:quantity", "sum(//o:qty)");
+      props.put("xpath-type:quantity", "number");
+    }
+    return props;
+  }
+
+  private static List<String> variableNames(Map<String, String> props) {
+    List<String> names = new ArrayList<String>();
+    for (String key : props.keySet()) {
+      if (key.startsWith("xpath:")) {
+        names.add(key.substring("xpath:".length()));
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Runs the callout from the given number of threads, each executing it EXECUTIONS times, and
+   * returns the executions per second. Fails on the first wrong variable.
+   */
+  private double run(final ExtractXpath callout, final List<String> names, int threads)
+      throws Exception {
+    final CountDownLatch start = new CountDownLatch(1);
+    final MessageContext[] contexts = new MessageContext[threads];
+    for (int t = 0; t < threads; t++) {
+      contexts[t] = newContext();
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<String>> futures = new ArrayList<Future<String>>();
+      for (int t = 0; t < threads; t++) {
+        final int thread = t;
+        futures.add(
+            executor.submit(
+                new Callable<String>() {
+                  public String call() throws Exception {
+                    String[] docs = new String[DOCUMENTS];
+                    List<Map<String, Object>> expected = new ArrayList<Map<String, Object>>();
+                    for (int d = 0; d < DOCUMENTS; d++) {
+                      docs[d] = order(thread, d);
+                      expected.add(expected(thread, d));
+                    }
+                    MessageContext msgCtxt = contexts[thread];
+                    msgCtxt.setVariable("ns", NS);
+                    start.await();
+                    for (int i = 0; i < EXECUTIONS; i++) {
+                      int d = i % DOCUMENTS;
+                      msgCtxt.setVariable("message.content", docs[d]);
+                      msgCtxt.setVariable("last_line", String.valueOf(lineCount(thread, d)));
+                      msgCtxt.removeVariable("xpath_error");
+                      for (String name : names) {
+                        msgCtxt.removeVariable(name);
+                      }
+                      ExecutionResult result = callout.execute(msgCtxt, exeCtxt);
+                      if (result != ExecutionResult.SUCCESS) {
+                        return "thread " + thread + ", execution " + i + ": " + result + ", "
+                            + msgCtxt.getVariable("xpath_error");
+                      }
+                      for (String name : names) {
+                        Object actual = msgCtxt.getVariable(name);
+                        if (!expected.get(d).get(name).equals(actual)) {
+                          return "thread " + thread + ", execution " + i + ": " + name
+                              + " was " + actual + ", expected " + expected.get(d).get(name);
+                        }
+                      }
+                    }
+                    return null;
+                  }
+                }));
+      }
+      long begin = System.nanoTime();
+      start.countDown();
+      for (Future<String> future : futures) {
+        Assert.assertNull(future.get());
+      }
+      return threads * EXECUTIONS / ((System.nanoTime() - begin) / 1e9);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private void runAll(String label, Map<String, String> props) throws Exception {
+    ExtractXpath callout = new ExtractXpath(props);
+    List<String> names = variableNames(props);
+    run(callout, names, 1); // warm up
+    double single = 0;
+    for (int threads : THREAD_COUNTS) {
+      double rate = run(callout, names, threads);
+      if (threads == 1) single = rate;
+      System.out.printf(
+          "%-14s %d threads: %8.0f executions/s, %.2fx%n", label, threads, rate, rate / single);
+    }
+  }
+
+  @Test
+  public void test_Dom() throws Exception {
+    runAll("dom", policy(false));
+  }
+
+  @Test
+  public void test_Stream() throws Exception {
+    Map<String, String> props = policy(true);
+    props.put("engine", "stream");
+    runAll("stream", props);
+  }
+
+  @Test
+  public void test_CompactDom() throws Exception {
+    Map<String, String> props = policy(false);
+    props.put("compact-dom", "true");
+    runAll("compact-dom", props);
+  }
+
+  @Test
+  public void test_ElementIndex() throws Exception {
+    Map<String, String> props = policy(false);
+    props.put("element-index", "true");
+    runAll("element-index", props);
+  }
+
+  @Test
+  public void test_Projection() throws Exception {
+    Map<String, String> props = policy(false);
+    props.put("projection", "true");
+    runAll("projection", props);
+  }
+
+  @Test
+  public void test_Parallel() throws Exception {
+    Map<String, String> props = policy(false);
+    props.put("parallel", "true");
+    props.put("parallel-min-xpaths", "2");
+    props.put("parallel-min-nodes", "1");
+    runAll("parallel", props);
+  }
+
+  // Each execution resolves the namespace and an xpath from its own context.
+  @Test
+  public void test_Templated() throws Exception {
+    Map<String, String> props = policy(false);
+    props.put("xmlns:o", "{ns}");
+    props.put("xpath:last", "/o:order/o:line[{last_line}]/@sku");
+    props.put("projection", "true");
+    runAll("templated", props);
+  }
+}
@@ -19,9 +19,27 @@ import com.apigee.flow.execution.ExecutionContext;
 import com.apigee.flow.execution.ExecutionResult;
 import com.apigee.flow.message.Message;
 import com.apigee.flow.message.MessageContext;
+import com.google.apigee.util.Histogram;
+import com.google.apigee.util.XPathEvaluator;
+import com.google.apigee.util.XPathExpressionCache;
+import com.google.apigee.util.XmlUtils;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import mockit.Mock;
 import mockit.MockUp;
 import org.testng.Assert;
@@ -233,13 +251,131 @@ public class TestExtractXpathCallout {
   }
 
   @Test
+  public void test_BadXpath_Repeated() throws Exception {
+    msgCtxt.setVariable("message.content", simpleXml1);
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("source", "message.content");
+    props.put("xpath:var1", "{query}");
+    msgCtxt.setVariable("query", "/a/b[");
+    ExtractXpath callout = new ExtractXpath(props);
+
+    ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.ABORT, "result not as expected");
+    Object exception = msgCtxt.getVariable("xpath_exception");
+    Object errorOutput = msgCtxt.getVariable("xpath_error");
+    Assert.assertNotNull(errorOutput, "errorOutput");
+    Assert.assertNull(msgCtxt.getVariable("xpath_stacktrace"), "stacktrace");
+
+    // the second time, the expression is not compiled again, and the error is the same
+    XPathExpressionCache.Stats before = XPathEvaluator.getExpressionCacheStats();
+    msgCtxt.removeVariable("xpath_exception");
+    msgCtxt.removeVariable("xpath_error");
+    actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.ABORT, "result not as expected");
+    XPathExpressionCache.Stats after = XPathEvaluator.getExpressionCacheStats();
+    Assert.assertEquals(after.getMisses(), before.getMisses(), "misses");
+    Assert.assertEquals(after.getRejections(), before.getRejections() + 1, "rejections");
+    Assert.assertEquals(msgCtxt.getVariable("xpath_exception"), exception);
+    Assert.assertEquals(msgCtxt.getVariable("xpath_error"), errorOutput);
+  }
+
+  @Test
+  public void test_StackTraceOnlyWhenDebugging() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("source", "message.content");
+    props.put("xpath:var1", "/Task/Triggers/EventTrigger/ExecutionTimeLimit/text()");
+    msgCtxt.setVariable("message.content", "<Task>");
+    ExecutionResult actualResult = new ExtractXpath(props).execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.ABORT, "result not as expected");
+    Assert.assertNotNull(msgCtxt.getVariable("xpath_error"), "errorOutput");
+    Assert.assertNull(msgCtxt.getVariable("xpath_stacktrace"), "stacktrace");
+
+    props.put("debug", "true");
+    actualResult = new ExtractXpath(props).execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.ABORT, "result not as expected");
+    String stacktrace = msgCtxt.getVariable("xpath_stacktrace");
+    Assert.assertNotNull(stacktrace, "stacktrace");
+    Assert.assertTrue(stacktrace.startsWith((String) msgCtxt.getVariable("xpath_exception")));
+  }
+
+  // the pattern that errorMessage() replaces
+  private static final Pattern errorStringPattern =
+      Pattern.compile("^.*(?:[a-zA-Z_$][a-zA-Z0-9_$]*\\.)+[a-zA-Z_$][a-zA-Z0-9_$]*: (.+)$");
+
+  private static String errorMessageByRegex(String error) {
+    Matcher matcher = errorStringPattern.matcher(error);
+    return matcher.find() ? matcher.group(1) : error;
+  }
+
+  @Test
+  public void test_ErrorMessage_SameAsRegex() throws Exception {
+    String[] errors = {
+      "javax.xml.xpath.XPathExpressionException: javax.xml.transform.TransformerException:"
+          + " A location step was expected following the '/' or '//' token.",
+      "java.lang.IllegalStateException: no xpaths provided",
+      "java.lang.IllegalStateException",
+      "java.lang.IllegalStateException: ",
+      "java.lang.IllegalStateException: x",
+      "org.xml.sax.SAXParseException; lineNumber: 1; columnNumber: 7; XML document structures"
+          + " must start and end within the same entity.",
+      "com.google.apigee.util.ParseLimitException: max-depth exceeded (limit 64)",
+      "java.lang.RuntimeException: a.b: c\nd",
+      "java.lang.RuntimeException: a.b: c\r\n",
+      "java.lang.RuntimeException: a.b: c\n\n",
+      "java.lang.RuntimeException: 1.b: c",
+      "java.lang.RuntimeException: a.1b: c",
+      "java.lang.RuntimeException: x1.b: c",
+      "java.lang.RuntimeException: a..b: c",
+      "java.lang.RuntimeException: .b: c",
+      ": a.b: c",
+      "a.b: ",
+      "a.b: \r",
+      "",
+    };
+    for (String error : errors) {
+      Assert.assertEquals(
+          XpathCalloutBase.errorMessage(error), errorMessageByRegex(error), error);
+    }
+    Assert.assertEquals(
+        XpathCalloutBase.getErrorMessage(new IllegalStateException("no xpaths provided")),
+        "no xpaths provided");
+
+    // and strings made of the characters that matter
+    String alphabet = "aZ1_$.: : .x9\n\r\u2028-";
+    Random random = new Random(25);
+    for (int n = 0; n < 100000; n++) {
+      char[] chars = new char[random.nextInt(16)];
+      for (int i = 0; i < chars.length; i++) {
+        chars[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+      }
+      String error = new String(chars);
+      Assert.assertEquals(
+          XpathCalloutBase.errorMessage(error), errorMessageByRegex(error), error);
+    }
+  }
+
+  @Test(
+      expectedExceptions = IllegalStateException.class,
+      expectedExceptionsMessageRegExp =
+          "invalid xpath for var1: Prefix must resolve to a namespace: tx")
   public void test_MissingNamespace() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("source", "message.content");
+    props.put("xpath:var1", "/tx:order/payment");
+
+    // a static xpath is compiled when the policy is loaded
+    new ExtractXpath(props);
+  }
+
+  @Test
+  public void test_MissingNamespace_FromVariable() throws Exception {
     String expectedError = "Prefix must resolve to a namespace: tx";
     msgCtxt.setVariable("message.content", simpleXml1);
+    msgCtxt.setVariable("xpath1", "/tx:order/payment");
 
     Map<String, String> props = new HashMap<String, String>();
     props.put("source", "message.content");
-    props.put("xpath:var1", "/tx:order/payment");
+    props.put("xpath:var1", "{xpath1}");
 
     ExtractXpath callout = new ExtractXpath(props);
 
@@ -481,4 +617,729 @@ public class TestExtractXpathCallout {
     System.out.println("=========================================================");
   }
 
+  @Test
+  public void test_CompiledXpathIsReused() throws Exception {
+    msgCtxt.setVariable("message.content", simpleXml1);
+
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("source", "message.content");
+    props.put("xmlns:tx", "https://example.com/20190122/tx");
+    props.put("xmlns:e", "https://example.com/20190122/entities");
+    props.put("xpath:var1", "/tx:order/e:payment/e:creditcard/@issuer");
+
+    ExtractXpath callout = new ExtractXpath(props);
+    ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, "result not as expected");
+    XPathExpressionCache.Stats before = XPathEvaluator.getExpressionCacheStats();
+
+    actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, "result not as expected");
+    XPathExpressionCache.Stats after = XPathEvaluator.getExpressionCacheStats();
+    Assert.assertEquals(after.getMisses(), before.getMisses(), "misses");
+    Assert.assertEquals(after.getHits(), before.getHits() + 1, "hits");
+    String value = msgCtxt.getVariable("var1");
+    Assert.assertEquals(value, "Mastercard", "result not as expected");
+    System.out.println("=========================================================");
+  }
+
+  @Test
+  public void test_DocumentBuilderIsReused() throws Exception {
+    // the external DTD must not be fetched, also when the builder is reused
+    String xmlWithDoctype =
+        "<!DOCTYPE Task SYSTEM 'http://example.invalid/task.dtd'>\n"
+            + simpleXml2.substring(simpleXml2.indexOf("<Task>"));
+
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("source", "message.content");
+    props.put("xpath:var1", "/Task/Triggers/EventTrigger/ExecutionTimeLimit/text()");
+    ExtractXpath callout = new ExtractXpath(props);
+
+    msgCtxt.setVariable("message.content", simpleXml2);
+    ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, "result not as expected");
+    XmlUtils.PoolStats before = XmlUtils.getBuilderPoolStats();
+
+    msgCtxt.setVariable("message.content", xmlWithDoctype);
+    actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, "result not as expected");
+    XmlUtils.PoolStats after = XmlUtils.getBuilderPoolStats();
+    Assert.assertEquals(after.getCreated(), before.getCreated(), "created");
+    Assert.assertEquals(after.getReused(), before.getReused() + 1, "reused");
+    Object errorOutput = msgCtxt.getVariable("xpath_error");
+    Assert.assertNull(errorOutput, "errorOutput");
+    String value = msgCtxt.getVariable("var1");
+    Assert.assertEquals(value, "123", "result not as expected");
+    System.out.println("=========================================================");
+  }
+
+  private Map<String, Object> runExtraction(Map<String, String> props) {
+    msgCtxt.removeVariable("var1");
+    msgCtxt.removeVariable("xpath_error");
+    msgCtxt.removeVariable("xpath_exception");
+    ExtractXpath callout = new ExtractXpath(props);
+    ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+    Map<String, Object> outcome = new HashMap<String, Object>();
+    outcome.put("result", actualResult);
+    outcome.put("var1", msgCtxt.getVariable("var1"));
+    outcome.put("error", msgCtxt.getVariable("xpath_error"));
+    return outcome;
+  }
+
+  @Test
+  public void test_StreamEngine_SameAsDom() throws Exception {
+    String[] xpaths = {
+      "/tx:order/e:payment/e:creditcard/e:number/text()",
+      "/tx:order/e:payment/@type",
+      "/tx:order/e:customer/e:address",
+      "/tx:order/e:articles/e:line[2]/e:product/@productNumber",
+      "/tx:order/e:articles/e:line/e:price[@currency='HUF']",
+      "/tx:order/e:articles/e:line/e:price",
+      "/tx:order/*/text()",
+      "//e:name",
+      "//e:deliveryaddress//e:city/text()",
+      "/tx:order/e:foo",
+      "count(//e:line)"
+    };
+    msgCtxt.setVariable("message.content", simpleXml1);
+    for (String xpath : xpaths) {
+      Map<String, String> props = new HashMap<String, String>();
+      props.put("source", "message.content");
+      props.put("xmlns:tx", "https://example.com/20190122/tx");
+      props.put("xmlns:e", "https://example.com/20190122/entities");
+      props.put("xpath:var1", xpath);
+      Map<String, Object> expected = runExtraction(props);
+      props.put("engine", "stream");
+      Map<String, Object> actual = runExtraction(props);
+      Assert.assertEquals(actual, expected, xpath);
+    }
+    System.out.println("=========================================================");
+  }
+
+  @Test
+  public void test_StreamEngine_AttributeWildcard() throws Exception {
+    // the DOM orders attributes by name, whatever order they were written in
+    msgCtxt.setVariable(
+        "message.content", "<a z='1' xmlns:p='urn:p' p:y='2' b='3' p:x='4'><c/></a>");
+    String[][] cases = {
+      {"/a/@*", "nodeset", "first", "3"},
+      {"/a/@*", "nodeset", "join", "3,4,2,1"},
+      {"/a/@p:*", "nodeset", "first", "4"},
+      {"/a/@*", "string", null, "3"},
+      {"/a/@*[1]", "string", null, "3"},
+      {"/a/@p:*", "string", null, "4"}
+    };
+    for (String[] c : cases) {
+      Map<String, String> props = new HashMap<String, String>();
+      props.put("source", "message.content");
+      props.put("xmlns:p", "urn:p");
+      props.put("xpath:var1", c[0]);
+      props.put("xpath-type:var1", c[1]);
+      if (c[2] != null) {
+        props.put("xpath-mode:var1", c[2]);
+      }
+      Map<String, Object> expected = runExtraction(props);
+      props.put("engine", "stream");
+      Map<String, Object> actual = runExtraction(props);
+      Assert.assertEquals(actual, expected, Arrays.toString(c));
+      Assert.assertEquals(actual.get("var1"), c[3], Arrays.toString(c));
+    }
+    System.out.println("=========================================================");
+  }
+
+  @Test
+  public void test_StreamEngine_StopsEarly() throws Exception {
+    StringBuilder sb = new StringBuilder("<root><id>42</id><items>");
+    for (int i = 0; i < 20000; i++) {
+      sb.append("<item>").append(i).append("</item>");
+    }
+    sb.append("</items></root>");
+    final byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+    final int[] bytesRead = new int[1];
+    messageContentStream =
+        new ByteArrayInputStream(bytes) {
+          @Override
+          public synchronized int read(byte[] b, int off, int len) {
+            int n = super.read(b, off, len);
+            if (n > 0) bytesRead[0] += n;
+            return n;
+          }
+        };
+
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("engine", "stream");
+    props.put("xpath:var1", "/root/id[1]/text()");
+
+    ExtractXpath callout = new ExtractXpath(props);
+    ExecutionResult actualResult = callout.execute(msgCtxt, exeCtxt);
+    Assert.assertEquals(actualResult, ExecutionResult.SUCCESS, "result not as expected");
+    Object errorOutput = msgCtxt.getVariable("xpath_error");
+    Assert.assertNull(errorOutput, "errorOutput");
+    String value = msgCtxt.getVariable("var1");
+    Assert.assertEquals(value, "42", "result not as expected");
+    Assert.assertTrue(bytesRead[0] < bytes.length / 4, "read " + bytesRead[0] + " bytes");
+    System.out.println("=========================================================");
+  }
+
+  @Test
+  public void test_Projection_SameAsFullParse() throws Exception {
+    String[] xpaths = {
+      "/tx:order/e:payment/e:creditcard/e:number/text()",
+      "/tx:order/e:payment/@type",
+      "/tx:order/e:customer/e:address",
+      "/tx:order/e:articles/e:line[2]/e:product/@productNumber",
+      "/tx:order/e:articles/e:line/e:price[@currency='HUF']",
+      "/tx:order/*/text()",
+      "/tx:order/e:delivery//e:city/text()",
+      "//e:name",
+      "/tx:order/e:foo"
+    };
+    msgCtxt.setVariable("message.content", simpleXml1);
+    for (String xpath : xpaths) {
+      Map<String, String> props = new HashMap<String, String>();
+      props.put("source", "message.content");
+      props.put("xmlns:tx", "https://example.com/20190122/tx");
+      props.put("xmlns:e", "https://example.com/20190122/entities");
+      props.put("xpath:var1", xpath);
+      Map<String, Object> expected = runExtraction(props);
+      props.put("projection", "true");
+      Map<String, Object> actual = runExtraction(props);
+      Assert.assertEquals(actual, expected, xpath);
+    }
+    System.out.println("=========================================================");
+  }
+
+  @Test
+  public void test_CompactDom_SameAsDom() throws Exception {
+    String[] xpaths = {
+      "/tx:order/e:payment/e:creditcard/e:number/text()",
+      "/tx:order/e:payment/@type",
+      "/tx:order/e:customer/e:address",
+      "/tx:order/e:articles/e:line[2]/e:product/@productNumber",
+      "/tx:order/*/text()",
+      "//e:name",
+      "//e:line[last()]/e:price/text()",
+      "/tx:order/e:foo"
+    };
+    msgCtxt.setVariable("message.content", simpleXml1);
+    for (String xpath : xpaths) {
+      Map<String, String> props = new HashMap<String, String>();
+      props.put("source", "message.content");
+      props.put("xmlns:tx", "https://example.com/20190122/tx");
+      props.put("xmlns:e", "https://example.com/20190122/entities");
+      props.put("xpath:var1", xpath);
+      Map<String, Object> expected = runExtraction(props);
+      props.put("compact-dom", "true");
+      Map<String, Object> actual = runExtraction(props);
+      Assert.assertEquals(actual, expected, xpath);
+    }
+    System.out.println("=========================================================");
+  }
+
+  private Map<String, Object> runExtraction(Map<String, String> props, List<String> names) {
+    for (String name : names) {
+      msgCtxt.removeVariable(name);
+    }
+    Map<String, Object> outcome = runExtraction(props);
+    for (String name : names) {
+      outcome.put(name, msgCtxt.getVariable(name));
+    }
+    return outcome;
+  }
+
+  @Test
+  public void test_ElementIndex_SameAsDom() throws Exception {
+    String[] xpaths = {
+      "//e:number/text()",
+      "//e:name",
+      "//e:line[2]/e:product/@productNumber",
+      "//e:price[@currency='HUF']",
+      "//e:city",
+      "//e:foo",
+      "/tx:order/e:payment/@type"
+    };
+    msgCtxt.setVariable("message.content", simpleXml1);
+    for (String xpath : xpaths) {
+      for (String option : new String[] {"deferred-dom", "compact-dom"}) {
+        Map<String, String> props = new HashMap<String, String>();
+        props.put("source", "message.content");
+        props.put("xmlns:tx", "https://example.com/20190122/tx");
+        props.put("xmlns:e", "https://example.com/20190122/entities");
+        props.put("xpath:var1", xpath);
+        props.put(option, "true");
+        Map<String, Object> expected = runExtraction(props);
+        props.put("element-index", "true");
+        Map<String, Object> actual = runExtraction(props);
+        Assert.assertEquals(actual, expected, xpath);
+      }
+    }
+    System.out.println("=========================================================");
+  }
+
+  @Test
+  public void test_Parallel_SameAsSequential() throws Exception {
+    String[] xpaths = {
+      "/tx:order/e:payment/e:creditcard/e:number/text()",
+      "/tx:order/e:payment/@type",
+      "/tx:order/e:customer/e:address",
+      "/tx:order/e:articles/e:line[2]/e:product/@productNumber",
+      "/tx:order/*/text()",
+      "//e:name",
+      "//e:line[last()]/e:price/text()",
+      "/tx:order/e:foo",
+      "count(//e:line)",
+      "//e:city"
+    };
+    msgCtxt.setVariable("message.content", simpleXml1);
+    List<String> names = new ArrayList<String>();
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("source", "message.content");
+    props.put("xmlns:tx", "https://example.com/20190122/tx");
+    props.put("xmlns:e", "https://example.com/20190122/entities");
+    for (int i = 0; i < xpaths.length; i++) {
+      names.add("var" + i);
+      props.put("xpath:var" + i, xpaths[i]);
+    }
+    Map<String, Object> expected = runExtraction(props, names);
+    // the count() xpath aborts, after the variables ahead of it are set
+    Assert.assertEquals(expected.get("result"), ExecutionResult.ABORT);
+    Assert.assertNotNull(expected.get("var6"));
+    Assert.assertNull(expected.get("var8"));
+
+    props.put("parallel", "true");
+    props.put("parallel-min-xpaths", "2");
+    props.put("parallel-min-nodes", "0");
+    for (int run = 0; run < 20; run++) {
+      Assert.assertEquals(runExtraction(props, names), expected);
+    }
+
+    props.remove("xpath:var8");
+    names.remove("var8");
+    expected = runExtraction(props, names);
+    Assert.assertEquals(expected.get("result"), ExecutionResult.SUCCESS);
+    props.remove("parallel");
+    Assert.assertEquals(runExtraction(props, names), expected);
+    System.out.println("=========================================================");
+  }
+
+  @Test
+  public void test_Timing() throws Exception {
+    msgCtxt.setVariable("message.content", simpleXml1);
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("source", "message.content");
+    props.put("xmlns:tx", "https://example.com/20190122/tx");
+    props.put("xmlns:e", "https://example.com/20190122/entities");
+    props.put("xpath:var1", "/tx:order/e:payment/e:creditcard/e:number/text()");
+
+    runExtraction(props);
+    Assert.assertNull(msgCtxt.getVariable("xpath_timing_parse_ns"));
+    Assert.assertNull(msgCtxt.getVariable("xpath_timing_eval_ns"));
+
+    props.put("timing", "true");
+    props.put("timing-name", "test_Timing");
+    long bytes = simpleXml1.getBytes(StandardCharsets.UTF_8).length;
+    Long domNodes = null;
+    for (String option : new String[] {"dom", "compact-dom", "engine"}) {
+      if (!option.equals("dom")) {
+        props.put(option, option.equals("engine") ? "stream" : "true");
+      }
+      Map<String, Object> outcome = runExtraction(props);
+      Assert.assertEquals(outcome.get("result"), ExecutionResult.SUCCESS, option);
+      Assert.assertNotNull(msgCtxt.getVariable("xpath_timing_eval_ns"), option);
+      if (option.equals("engine")) {
+        // may stop reading once the card number is found
+        Assert.assertTrue((Long) msgCtxt.getVariable("xpath_document_bytes") <= bytes);
+        continue;
+      }
+      Assert.assertTrue((Long) msgCtxt.getVariable("xpath_timing_parse_ns") > 0, option);
+      Assert.assertNotNull(msgCtxt.getVariable("xpath_timing_eval_ns.var1"), option);
+      Assert.assertEquals((long) (Long) msgCtxt.getVariable("xpath_document_bytes"), bytes, option);
+      Long nodes = msgCtxt.getVariable("xpath_document_nodes");
+      Assert.assertTrue(nodes > 10, option);
+      if (domNodes == null) {
+        domNodes = nodes;
+      } else {
+        Assert.assertEquals(nodes, domNodes, option);
+      }
+      msgCtxt.removeVariable("xpath_timing_parse_ns");
+    }
+
+    Map<String, Histogram.Snapshot> measures = ExtractionMetrics.snapshot().get("test_Timing");
+    Assert.assertEquals(measures.get(ExtractionMetrics.EVAL_NANOS).getCount(), 3);
+    Assert.assertEquals(measures.get(ExtractionMetrics.PARSE_NANOS).getCount(), 2);
+    Assert.assertEquals(measures.get(ExtractionMetrics.DOCUMENT_BYTES).getMax(), bytes);
+    System.out.println("=========================================================");
+  }
+
+  public interface StaleMXBean {
+    long getStale();
+  }
+
+  @Test
+  public void test_Timing_ReplacesMBeanOfEarlierDeployment() throws Exception {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName objectName =
+        new ObjectName("com.google.apigee.callouts:type=ExtractXpath,name=\"test_Redeploy\"");
+    // stands in for the MBean that the previous revision of the proxy registered
+    server.registerMBean(
+        new StaleMXBean() {
+          public long getStale() {
+            return 1L;
+          }
+        },
+        objectName);
+
+    ExtractionMetrics.forPolicy("test_Redeploy");
+    Assert.assertEquals(server.getAttribute(objectName, "Executions"), 0L);
+  }
+
+  @Test
+  public void test_ByteSources_SameAsString() throws Exception {
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("source", "xml");
+    props.put("xmlns:tx", "https://example.com/20190122/tx");
+    props.put("xmlns:e", "https://example.com/20190122/entities");
+    props.put("xpath:var1", "/tx:order/e:customer/e:name/text()");
+    msgCtxt.setVariable("xml", simpleXml1);
+    Map<String, Object> expected = runExtraction(props);
+    Assert.assertEquals(expected.get("var1"), "Michael Sonntag");
+
+    byte[] utf8 = simpleXml1.getBytes(StandardCharsets.UTF_8);
+    // no declaration, so the parser has to go by the byte order mark
+    byte[] utf16 =
+        simpleXml1.substring(simpleXml1.indexOf("?>") + 2).getBytes(StandardCharsets.UTF_16);
+    ByteBuffer direct = ByteBuffer.allocateDirect(utf8.length + 4);
+    direct.put(new byte[] {1, 2}).put(utf8).flip().position(2);
+    ByteBuffer slice = ByteBuffer.wrap(("xx" + simpleXml1).getBytes(StandardCharsets.UTF_8));
+    slice.position(2);
+    Object[] sources = {
+      utf8, utf16, direct, slice, new ByteArrayInputStream(utf8),
+    };
+    for (Object source : sources) {
+      msgCtxt.setVariable("xml", source);
+      Assert.assertEquals(runExtraction(props), expected, source.getClass().getName());
+    }
+    // the buffer is read through a copy of it, and can be read again
+    Assert.assertEquals(direct.position(), 2);
+    msgCtxt.setVariable("xml", direct);
+    props.put("compact-dom", "true");
+    Assert.assertEquals(runExtraction(props), expected);
+
+    msgCtxt.setVariable("xml", Integer.valueOf(7));
+    Map<String, Object> outcome = runExtraction(props);
+    Assert.assertEquals(outcome.get("result"), ExecutionResult.ABORT);
+    Assert.assertEquals(
+        outcome.get("error"), "source variable is not a String, byte[], ByteBuffer or InputStream");
+    System.out.println("=========================================================");
+  }
+
+  // a stream that, like the message content, cannot be reset
+  private static InputStream oneShot(byte[] bytes) {
+    return new FilterInputStream(new ByteArrayInputStream(bytes)) {
+      @Override
+      public boolean markSupported() {
+        return false;
+      }
+    };
+  }
+
+  @Test
+  public void test_StreamFallback_RereadsSource() throws Exception {
+    // the streaming engine gives up at the DOCTYPE, or the version, and the DOM takes over
+    String[] xmls = {
+      "<!DOCTYPE r [<!ENTITY e 'four'>]><r><x>42</x><y>&e;</y></r>",
+      "<?xml version='1.1'?><r><x>42</x></r>",
+    };
+    for (String xml : xmls) {
+      byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+      Map<String, String> props = new HashMap<String, String>();
+      props.put("source", "xml");
+      props.put("xpath:var1", "/r/x");
+      msgCtxt.setVariable("xml", xml);
+      Map<String, Object> expected = runExtraction(props);
+      Assert.assertEquals(expected.get("var1"), "42");
+
+      props.put("engine", "stream");
+      Object[] sources = {bytes, new ByteArrayInputStream(bytes), oneShot(bytes)};
+      for (Object source : sources) {
+        msgCtxt.setVariable("xml", source);
+        Assert.assertEquals(runExtraction(props), expected, source.getClass().getName());
+      }
+      props.put("timing", "true");
+      msgCtxt.setVariable("xml", oneShot(bytes));
+      Assert.assertEquals(runExtraction(props), expected, "timing");
+      Assert.assertEquals(msgCtxt.getVariable("xpath_document_bytes"), Long.valueOf(bytes.length));
+
+      props.remove("source");
+      props.remove("timing");
+      messageContentStream = oneShot(bytes);
+      Assert.assertEquals(runExtraction(props), expected, "message content");
+    }
+  }
+
+  @Test
+  public void test_Limits() throws Exception {
+    String[][] configs = {
+      {}, {"compact-dom", "true"}, {"engine", "stream"}, {"projection", "true"},
+    };
+    String[][] tooSmall = {
+      {"max-bytes", "100"},
+      {"max-depth", "3"},
+      {"max-elements", "10"},
+      {"max-text-length", "20"},
+    };
+    String[][] enough = {
+      {"max-bytes", "100000"},
+      {"max-depth", "5"},
+      {"max-elements", "1000"},
+      {"max-attributes", "1"},
+      {"max-text-length", "100"},
+    };
+    msgCtxt.setVariable("message.content", simpleXml1);
+    for (String[] config : configs) {
+      Map<String, String> props = new HashMap<String, String>();
+      props.put("source", "message.content");
+      props.put("xmlns:tx", "https://example.com/20190122/tx");
+      props.put("xmlns:e", "https://example.com/20190122/entities");
+      // matches nothing, so the stream engine reads to the end
+      props.put("xpath:var1", "/tx:order/e:payment/e:foo");
+      if (config.length > 0) {
+        props.put(config[0], config[1]);
+      }
+      Map<String, Object> expected = runExtraction(props);
+      Assert.assertEquals(expected.get("result"), ExecutionResult.SUCCESS);
+      for (String[] limit : tooSmall) {
+        Map<String, String> limited = new HashMap<String, String>(props);
+        limited.put(limit[0], limit[1]);
+        Map<String, Object> outcome = runExtraction(limited);
+        Assert.assertEquals(outcome.get("result"), ExecutionResult.ABORT, limit[0]);
+        Assert.assertEquals(
+            outcome.get("error"), limit[0] + " exceeded (limit " + limit[1] + ")", limit[0]);
+      }
+      Map<String, String> limited = new HashMap<String, String>(props);
+      for (String[] limit : enough) {
+        limited.put(limit[0], limit[1]);
+      }
+      Assert.assertEquals(runExtraction(limited), expected, props.toString());
+    }
+
+    // namespace declarations are not attributes
+    msgCtxt.setVariable("message.content", "<a xmlns:p='urn:p' p:x='1' y='2'/>");
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("source", "message.content");
+    props.put("xpath:var1", "/a/@y");
+    props.put("max-attributes", "2");
+    Assert.assertEquals(runExtraction(props).get("var1"), "2");
+    props.put("max-attributes", "1");
+    Assert.assertEquals(
+        runExtraction(props).get("error"), "max-attributes exceeded (limit 1)");
+    System.out.println("=========================================================");
+  }
+
+  @Test
+  public void test_Modes() throws Exception {
+    msgCtxt.setVariable("message.content", simpleXml1);
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("source", "message.content");
+    props.put("xmlns:tx", "https://example.com/20190122/tx");
+    props.put("xmlns:e", "https://example.com/20190122/entities");
+    props.put("xpath:first", "/tx:order/e:articles/e:line/e:product/@productNumber");
+    props.put("xpath-mode:first", "first");
+    props.put("xpath:all", "/tx:order/e:articles/e:line/e:product/@productNumber");
+    props.put("xpath-mode:all", "all");
+    props.put("xpath:count", "//e:line");
+    props.put("xpath-mode:count", "count");
+    props.put("xpath:join", "//e:line/e:price/text()");
+    props.put("xpath-mode:join", "join");
+    props.put("xpath-delimiter:join", "|");
+    props.put("xpath:none", "/tx:order/e:foo");
+    props.put("xpath-mode:none", "first");
+    props.put("xpath:zero", "/tx:order/e:foo");
+    props.put("xpath-mode:zero", "count");
+    List<String> names = Arrays.asList("first", "all", "count", "join", "none", "zero");
+
+    for (String[] config : new String[][] {{}, {"engine", "stream"}, {"compact-dom", "true"}}) {
+      Map<String, String> configured = new HashMap<String, String>(props);
+      if (config.length > 0) {
+        configured.put(config[0], config[1]);
+      }
+      Map<String, Object> outcome = runExtraction(configured, names);
+      Assert.assertEquals(outcome.get("result"), ExecutionResult.SUCCESS);
+      Assert.assertNull(outcome.get("error"));
+      Assert.assertEquals(outcome.get("first"), "9907");
+      Assert.assertEquals(outcome.get("all"), Arrays.asList("9907", "666", "007"));
+      Assert.assertEquals(outcome.get("count"), 3);
+      Assert.assertEquals(outcome.get("join"), "0.10|999.89|500");
+      Assert.assertNull(outcome.get("none"));
+      Assert.assertEquals(outcome.get("zero"), 0);
+
+      // only count and first can be streamed
+      configured.keySet().removeAll(Arrays.asList("xpath:all", "xpath-mode:all"));
+      configured.keySet().removeAll(Arrays.asList("xpath:join", "xpath-mode:join"));
+      configured.remove("xpath-delimiter:join");
+      outcome.remove("all");
+      outcome.remove("join");
+      Map<String, Object> streamable = runExtraction(configured, names);
+      streamable.remove("all");
+      streamable.remove("join");
+      Assert.assertEquals(streamable, outcome);
+    }
+
+    props.put("xpath-mode:first", "many");
+    try {
+      new ExtractXpath(props);
+      Assert.fail("expected an exception");
+    } catch (IllegalStateException exc1) {
+      Assert.assertEquals(exc1.getMessage(), "unsupported mode for first: many");
+    }
+    props.put("xpath-mode:first", "first");
+    props.put("xpath-mode:other", "all");
+    try {
+      new ExtractXpath(props);
+      Assert.fail("expected an exception");
+    } catch (IllegalStateException exc1) {
+      Assert.assertEquals(exc1.getMessage(), "no xpath for property: xpath-mode:other");
+    }
+    props.remove("xpath-mode:other");
+    // an i upper-cased in a Turkish locale is not an I
+    Locale locale = Locale.getDefault();
+    Locale.setDefault(new Locale("tr", "TR"));
+    try {
+      new ExtractXpath(props);
+    } finally {
+      Locale.setDefault(locale);
+    }
+    System.out.println("=========================================================");
+  }
+
+  @Test
+  public void test_Types() throws Exception {
+    msgCtxt.setVariable("message.content", simpleXml1);
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("source", "message.content");
+    props.put("xmlns:tx", "https://example.com/20190122/tx");
+    props.put("xmlns:e", "https://example.com/20190122/entities");
+    props.put("xpath:count", "count(//e:line)");
+    props.put("xpath-type:count", "number");
+    props.put("xpath:sum", "sum(//e:line/e:quantity)");
+    props.put("xpath-type:sum", "number");
+    props.put("xpath:has", "boolean(/tx:order/e:payment)");
+    props.put("xpath-type:has", "boolean");
+    props.put("xpath:type", "string(/tx:order/e:payment/@type)");
+    props.put("xpath-type:type", "string");
+    props.put("xpath:node", "//e:line/e:price");
+    props.put("xpath-type:node", "node");
+    props.put("xpath:nonode", "/tx:order/e:foo");
+    props.put("xpath-type:nonode", "node");
+    List<String> names = Arrays.asList("count", "sum", "has", "type", "node", "nonode");
+    Map<String, Object> outcome = runExtraction(props, names);
+    Assert.assertEquals(outcome.get("result"), ExecutionResult.SUCCESS);
+    Assert.assertNull(outcome.get("error"));
+    Assert.assertEquals(outcome.get("count"), 3.0d);
+    Assert.assertEquals(outcome.get("sum"), 36.0d);
+    Assert.assertEquals(outcome.get("has"), Boolean.TRUE);
+    Assert.assertEquals(outcome.get("type"), "CC");
+    Assert.assertEquals(outcome.get("node"), "0.10");
+    Assert.assertNull(outcome.get("nonode"));
+
+    // simple paths of these types can be streamed, with the same results
+    String[] xpaths = {
+      "/tx:order/e:payment/@type",
+      "/tx:order/e:articles/e:line/e:price",
+      "/tx:order/e:payment/e:creditcard/e:number/text()",
+      "/tx:order/e:foo",
+      "//e:city"
+    };
+    for (String xpath : xpaths) {
+      for (String type : new String[] {"node", "string", "boolean"}) {
+        Map<String, String> typed = new HashMap<String, String>();
+        typed.put("source", "message.content");
+        typed.put("xmlns:tx", "https://example.com/20190122/tx");
+        typed.put("xmlns:e", "https://example.com/20190122/entities");
+        typed.put("xpath:var1", xpath);
+        typed.put("xpath-type:var1", type);
+        Map<String, Object> expected = runExtraction(typed);
+        Assert.assertEquals(expected.get("result"), ExecutionResult.SUCCESS);
+        typed.put("engine", "stream");
+        Assert.assertEquals(runExtraction(typed), expected, type + " " + xpath);
+      }
+    }
+
+    // a text() node is the whole run of text and CDATA, as a string
+    String[] cdata = {
+      "<r><x>x<![CDATA[y]]>z</x></r>",
+      "<r><x><![CDATA[y]]>z</x></r>",
+      "<r><x><![CDATA[]]></x><x>w</x></r>",
+      "<r><x>x<![CDATA[y]]></x><!-- c -->z</r>",
+    };
+    for (String xml : cdata) {
+      for (String type : new String[] {"nodeset", "node", "string", "boolean"}) {
+        Map<String, String> typed = new HashMap<String, String>();
+        typed.put("source", "message.content");
+        typed.put("xpath:var1", "/r/x/text()");
+        typed.put("xpath-type:var1", type);
+        msgCtxt.setVariable("message.content", xml);
+        Map<String, Object> expected = runExtraction(typed);
+        typed.put("engine", "stream");
+        Assert.assertEquals(runExtraction(typed), expected, type + " " + xml);
+      }
+    }
+    msgCtxt.setVariable("message.content", cdata[0]);
+    Map<String, String> typed = new HashMap<String, String>();
+    typed.put("source", "message.content");
+    typed.put("xpath:var1", "/r/x/text()");
+    typed.put("xpath-type:var1", "string");
+    typed.put("engine", "stream");
+    Assert.assertEquals(runExtraction(typed).get("var1"), "xyz");
+
+    props.put("xpath-mode:count", "all");
+    try {
+      new ExtractXpath(props);
+      Assert.fail("expected an exception");
+    } catch (IllegalStateException exc1) {
+      Assert.assertEquals(exc1.getMessage(), "xpath-mode applies only to a nodeset: count");
+    }
+    // an i upper-cased in a Turkish locale is not an I
+    Locale locale = Locale.getDefault();
+    Locale.setDefault(new Locale("tr", "TR"));
+    try {
+      Assert.assertEquals(runExtraction(typed).get("var1"), "xyz");
+    } finally {
+      Locale.setDefault(locale);
+    }
+    System.out.println("=========================================================");
+  }
+
+  @Test
+  public void test_Warmup() throws Exception {
+    msgCtxt.setVariable("message.content", simpleXml1);
+    Map<String, String> props = new HashMap<String, String>();
+    props.put("source", "message.content");
+    props.put("xmlns:tx", "https://example.com/20190122/tx");
+    props.put("xmlns:e", "https://example.com/20190122/entities");
+    props.put("xpath:type", "/tx:order/e:payment/@type");
+    props.put("xpath:count", "count(//e:line)");
+    props.put("xpath-type:count", "number");
+    props.put("xpath:price", "//e:line/e:price");
+    props.put("xpath-mode:price", "all");
+    props.put("xpath:name", "{xpath_name}");
+    msgCtxt.setVariable("xpath_name", "//e:name");
+    List<String> names = Arrays.asList("type", "count", "price", "name");
+    Map<String, Object> expected = runExtraction(props, names);
+    Assert.assertEquals(expected.get("result"), ExecutionResult.SUCCESS);
+
+    props.put("warmup", "true");
+    XmlUtils.PoolStats before = XmlUtils.getBuilderPoolStats();
+    new ExtractXpath(props);
+    XmlUtils.PoolStats after = XmlUtils.getBuilderPoolStats();
+    Assert.assertTrue(
+        after.getCreated() + after.getReused() > before.getCreated() + before.getReused(),
+        "parsed while loading");
+
+    for (String option : new String[] {"engine", "compact-dom", "element-index", "projection"}) {
+      Map<String, String> variant = new HashMap<String, String>(props);
+      variant.put(option, option.equals("engine") ? "stream" : "true");
+      Assert.assertEquals(runExtraction(variant, names), expected, option);
+    }
+    Assert.assertEquals(runExtraction(props, names), expected);
+  }
 }
@@ -0,0 +1,114 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class TestExtractXpathTool {
+
+  private static final String policy =
+      "<JavaCallout name='Java-Xpath-Extract'>\n"
+          + "  <Properties>\n"
+          + "    <Property name='source'>message.content</Property>\n"
+          + "    <Property name='xmlns:tx'>{xmlns_tx}</Property>\n"
+          + "    <Property name='xpath:var1'>{xpath}</Property>\n"
+          + "    <Property name='xpath:var2'>count(/tx:order/tx:line)</Property>\n"
+          + "    <Property name='xpath-type:var2'>number</Property>\n"
+          + "  </Properties>\n"
+          + "  <ClassName>com.google.apigee.callouts.ExtractXpath</ClassName>\n"
+          + "</JavaCallout>\n";
+
+  private static String order(int id, int lines) {
+    StringBuilder sb = new StringBuilder("<order xmlns='urn:tx' id='" + id + "'>");
+    for (int i = 0; i < lines; i++) {
+      sb.append("<line/>");
+    }
+    return sb.append("</order>").toString();
+  }
+
+  private Path dir;
+
+  @AfterMethod
+  public void deleteDirectory() throws Exception {
+    if (dir == null) return;
+    List<Path> paths;
+    try (Stream<Path> tree = Files.walk(dir)) {
+      paths = tree.collect(Collectors.toList());
+    }
+    Collections.reverse(paths);
+    for (Path path : paths) {
+      Files.delete(path);
+    }
+    dir = null;
+  }
+
+  @Test
+  public void test_Directory() throws Exception {
+    dir = Files.createTempDirectory("xpath-tool");
+    Path policyFile = dir.resolve("policy.xml");
+    Files.write(policyFile, policy.getBytes(StandardCharsets.UTF_8));
+    Path input = Files.createDirectories(dir.resolve("in/nested"));
+    Files.write(dir.resolve("in/a.xml"), order(1, 2).getBytes(StandardCharsets.UTF_8));
+    Files.write(input.resolve("b.xml"), order(2, 0).getBytes(StandardCharsets.UTF_16));
+    Files.write(input.resolve("c.xml"), "<order".getBytes(StandardCharsets.UTF_8));
+    Path output = dir.resolve("out.jsonl");
+
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    int status =
+        ExtractXpathTool.run(
+            new String[] {
+              "-v", "xmlns_tx=urn:tx",
+              "-v", "xpath=/tx:order/@id",
+              "-threads", "2",
+              "-o", output.toString(),
+              policyFile.toString(),
+              dir.resolve("in").toString()
+            },
+            System.out,
+            new PrintStream(err, true, "UTF-8"));
+    Assert.assertEquals(status, 0);
+    List<String> lines = Files.readAllLines(output, StandardCharsets.UTF_8);
+    Assert.assertEquals(lines.size(), 3);
+    Assert.assertEquals(
+        lines.get(0), "{\"file\":\"" + dir.resolve("in/a.xml") + "\",\"var1\":\"1\",\"var2\":2}");
+    Assert.assertEquals(
+        lines.get(1), "{\"file\":\"" + input.resolve("b.xml") + "\",\"var1\":\"2\",\"var2\":0}");
+    Assert.assertTrue(lines.get(2).contains(",\"error\":\""), lines.get(2));
+    String summary = new String(err.toByteArray(), "UTF-8");
+    Assert.assertTrue(summary.startsWith("3 documents (1 failed), "), summary);
+    Assert.assertTrue(summary.contains(" docs/s, "), summary);
+  }
+
+  @Test
+  public void test_Usage() throws Exception {
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    int status =
+        ExtractXpathTool.run(new String[] {"-x"}, System.out, new PrintStream(err, true, "UTF-8"));
+    Assert.assertEquals(status, 2);
+    Assert.assertTrue(new String(err.toByteArray(), "UTF-8").startsWith("usage: "));
+  }
+}
@@ -0,0 +1,108 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.callouts;
+
+import com.apigee.flow.message.MessageContext;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import mockit.Mock;
+import mockit.MockUp;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestPropertyTemplate {
+
+  MessageContext msgCtxt;
+
+  @BeforeMethod()
+  public void beforeMethod() {
+    final Map<String, Object> variables = new HashMap<String, Object>();
+    variables.put("a", "A");
+    variables.put("b.c", "BC");
+    variables.put("x\ny", "XY");
+    variables.put("empty", "");
+    variables.put("dollar", "$1\\");
+    msgCtxt =
+        new MockUp<MessageContext>() {
+          @Mock()
+          public Object getVariable(final String name) {
+            return variables.get(name);
+          }
+        }.getMockInstance();
+  }
+
+  // the regex the resolver replaces
+  private static final Pattern variableReferencePattern =
+      Pattern.compile("(.*?)\\{([^\\{\\} ]+?)\\}(.*?)");
+
+  private String resolveWithRegex(String spec) {
+    Matcher matcher = variableReferencePattern.matcher(spec);
+    StringBuffer sb = new StringBuffer();
+    while (matcher.find()) {
+      matcher.appendReplacement(sb, "");
+      sb.append(matcher.group(1));
+      Object v = msgCtxt.getVariable(matcher.group(2));
+      if (v != null) {
+        sb.append((String) v);
+      }
+      sb.append(matcher.group(3));
+    }
+    matcher.appendTail(sb);
+    return sb.toString();
+  }
+
+  private static final String[] specs = {
+    "",
+    "plain",
+    "{a}",
+    "x{a}y",
+    "{a}{b.c}",
+    "{unknown}",
+    "pre{unknown}post",
+    "{}",
+    "{ a}",
+    "{a }",
+    "{{a}}",
+    "{a{b.c}",
+    "}{a}{",
+    "{",
+    "}",
+    "line1\nline2{a}\n{b.c}",
+    "{x\ny}",
+    "{empty}-{dollar}",
+    "{a}} {{b.c} {a b}",
+    "/tx:order/e:payment[@type='{a}']/text()"
+  };
+
+  @Test
+  public void test_SameAsRegex() throws Exception {
+    for (String spec : specs) {
+      PropertyTemplate template = PropertyTemplate.compile(spec);
+      Assert.assertEquals(template.resolve(msgCtxt), resolveWithRegex(spec), spec);
+      Assert.assertEquals(
+          template.isLiteral(), !variableReferencePattern.matcher(spec).find(), spec);
+    }
+  }
+
+  @Test
+  public void test_LiteralIsReturnedAsIs() throws Exception {
+    String spec = "/tx:order/e:payment/text()";
+    Assert.assertSame(PropertyTemplate.compile(spec).resolve(msgCtxt), spec);
+  }
+}
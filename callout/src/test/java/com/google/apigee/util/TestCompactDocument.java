@@ -0,0 +1,157 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.util;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.xml.xpath.XPathConstants;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+public class TestCompactDocument {
+
+  private static final String xml =
+      "<?xml version='1.0'?>\n"
+          + "<!-- before -->\n"
+          + "<a xmlns='urn:d' xmlns:p='urn:p' z='26' b='2'>"
+          + "<b id='1'>one<c>c1</c></b>"
+          + "<b id='2'>two<![CDATA[cd]]>tail<!--x-->more</b>"
+          + "<p:b id='3'>three<?pi data?></p:b>"
+          + "<b><![CDATA[first]]>x &amp; y</b>"
+          + "<d><b id='4'>deep<b id='5'>deeper</b></b></d>  "
+          + "</a>";
+
+  private static final String[] xpaths = {
+    "/d:a",
+    "/d:a/d:b[2]/text()",
+    "/d:a/d:b[4]/text()",
+    "/d:a/p:*",
+    "/d:a/@*",
+    "//d:b/@id",
+    "//node()",
+    "//comment()",
+    "//processing-instruction()",
+    "/*/namespace::*",
+    "//*[@id]/ancestor::*",
+    "//d:b/following-sibling::node()",
+    "//text()[.='more']/preceding-sibling::node()",
+    "/node()",
+    "string(/)",
+    "count(//text())",
+    "string(//d:b[2])",
+    "sum(//@id)"
+  };
+
+  private static XPathEvaluator evaluator() {
+    XPathEvaluator xpe = new XPathEvaluator();
+    xpe.registerNamespace("d", "urn:d");
+    xpe.registerNamespace("p", "urn:p");
+    return xpe;
+  }
+
+  private static String describe(XPathEvaluator xpe, String xpath, Document document)
+      throws Exception {
+    if (!xpath.startsWith("/")) {
+      return (String) xpe.evaluate(xpath, document, XPathConstants.STRING);
+    }
+    NodeList nodes = (NodeList) xpe.evaluate(xpath, document, XPathConstants.NODESET);
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < nodes.getLength(); i++) {
+      Node node = nodes.item(i);
+      sb.append(node.getNodeType())
+          .append('|')
+          .append(node.getNodeName())
+          .append('|')
+          .append(node.getNamespaceURI())
+          .append('|')
+          .append(node.getLocalName())
+          .append('|')
+          .append(node.getTextContent())
+          .append(';');
+    }
+    return sb.toString();
+  }
+
+  private static CompactDocument parseCompact(String s) throws Exception {
+    return XmlUtils.parseCompact(new InputSource(new StringReader(s)));
+  }
+
+  @Test
+  public void test_SameResultsAsDom() throws Exception {
+    XPathEvaluator xpe = evaluator();
+    Document dom = XmlUtils.parseXml(xml);
+    Document view = parseCompact(xml).newView();
+    for (String xpath : xpaths) {
+      Assert.assertEquals(describe(xpe, xpath, view), describe(xpe, xpath, dom), xpath);
+    }
+  }
+
+  @Test
+  public void test_SharedAcrossThreads() throws Exception {
+    final CompactDocument document = parseCompact(xml);
+    Document dom = XmlUtils.parseXml(xml);
+    final List<String> expected = new ArrayList<String>();
+    for (String xpath : xpaths) {
+      expected.add(describe(evaluator(), xpath, dom));
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+      for (int t = 0; t < 16; t++) {
+        futures.add(
+            executor.submit(
+                new Callable<List<String>>() {
+                  public List<String> call() throws Exception {
+                    XPathEvaluator xpe = evaluator();
+                    Document view = document.newView();
+                    List<String> results = new ArrayList<String>();
+                    for (String xpath : xpaths) {
+                      results.add(describe(xpe, xpath, view));
+                    }
+                    return results;
+                  }
+                }));
+      }
+      for (Future<List<String>> future : futures) {
+        Assert.assertEquals(future.get(), expected);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void test_ViewIsReadOnly() throws Exception {
+    Document view = parseCompact(xml).newView();
+    Assert.assertSame(CompactDocument.of(view).newView().getClass(), view.getClass());
+    try {
+      view.getDocumentElement().setAttribute("x", "y");
+      Assert.fail("expected an exception");
+    } catch (DOMException exc1) {
+      Assert.assertEquals(exc1.code, DOMException.NO_MODIFICATION_ALLOWED_ERR);
+    }
+  }
+}
@@ -0,0 +1,332 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.util;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+public class TestXPathEvaluator {
+
+  private static final String soap =
+      "<Envelope xmlns='urn:s' xmlns:p='urn:p'>"
+          + "<Header><p:token>abc</p:token></Header>"
+          + "<Body><Order id='7'><Line>1</Line><Line>2</Line><p:Line>3</p:Line></Order></Body>"
+          + "</Envelope>";
+
+  @Test
+  public void test_RewriteLocalNames() {
+    String[][] cases = {
+      {"/a/b", "/*[local-name()='a']/*[local-name()='b']"},
+      {"//a[@id='x']/text()", "//*[local-name()='a'][@id='x']/text()"},
+      {"/p:a/b", "/p:a/*[local-name()='b']"},
+      {"/p:*", "/p:*"},
+      {"child::a/attribute::b", "child::*[local-name()='a']/attribute::b"},
+      {"count(a) div 2", "count(*[local-name()='a']) div 2"},
+      {"a and b or c", "*[local-name()='a'] and *[local-name()='b'] or *[local-name()='c']"},
+      {"* * 2", "* * 2"},
+      {"a[. = 'b c']", "*[local-name()='a'][. = 'b c']"},
+      {"$v/a", "$v/*[local-name()='a']"},
+      {"node()|comment()", "node()|comment()"},
+      {"a-b.c", "*[local-name()='a-b.c']"},
+      {"../a mod 3", "../*[local-name()='a'] mod 3"},
+      {"/a/@b", "/*[local-name()='a']/@b"},
+    };
+    for (String[] c : cases) {
+      Assert.assertEquals(LocalNameRewriter.rewrite(c[0]), c[1], c[0]);
+    }
+    String unchanged = "/p:a/@b";
+    Assert.assertSame(LocalNameRewriter.rewrite(unchanged), unchanged);
+  }
+
+  @Test
+  public void test_DefaultNamespace_AnyNamespace() throws Exception {
+    XPathEvaluator xpe = new XPathEvaluator();
+    xpe.registerNamespace("p", "urn:p");
+    Assert.assertEquals(
+        xpe.evaluate("string(/Envelope/Body/Order/@id)", soap, XPathConstants.STRING), "7");
+    Assert.assertEquals(xpe.evaluate("count(//Line)", soap, XPathConstants.NUMBER), 3.0);
+    Assert.assertEquals(xpe.evaluate("count(//p:Line)", soap, XPathConstants.NUMBER), 1.0);
+    Assert.assertEquals(
+        xpe.evaluate("string(/Envelope/Header/p:token)", soap, XPathConstants.STRING), "abc");
+    Assert.assertEquals(
+        xpe.evalXPathToString("/Envelope/Body/Order/Line[2]/text()", soap), "2\n");
+  }
+
+  @Test
+  public void test_DefaultNamespace_BoundToPrefix() throws Exception {
+    XPathEvaluator xpe = new XPathEvaluator();
+    xpe.registerNamespace("p", "urn:p");
+    xpe.setDefaultNamespacePrefix("s");
+    Assert.assertEquals(xpe.evaluate("count(//s:Line)", soap, XPathConstants.NUMBER), 2.0);
+    Assert.assertEquals(xpe.evaluate("count(//Line)", soap, XPathConstants.NUMBER), 0.0);
+    Assert.assertEquals(
+        xpe.evaluate("string(/s:Envelope/s:Body/s:Order/s:Line[2])", soap, XPathConstants.STRING),
+        "2");
+    // the prefix is bound for that document only
+    Assert.assertFalse(xpe.getNamespaces().containsKey("s"));
+  }
+
+  @Test
+  public void test_NoDefaultNamespace() throws Exception {
+    String xml = "<a xmlns:p='urn:p'><b>1</b><p:b>2</p:b></a>";
+    XPathEvaluator xpe = new XPathEvaluator();
+    xpe.registerNamespace("p", "urn:p");
+    Assert.assertEquals(xpe.evaluate("count(/a/b)", xml, XPathConstants.NUMBER), 1.0);
+    Assert.assertEquals(xpe.evaluate("string(/a/p:b)", xml, XPathConstants.STRING), "2");
+  }
+
+  private static final String[] NAMES = {"a", "b", "c"};
+  private static final String[] NAME_TESTS = {"a", "b", "c", "*", "x:a", "x:b", "x:*", "y:a"};
+  private static final String[] PREDICATES = {"[1]", "[2]", "[3]", "[@id='1']", "[@x:id='1']"};
+  private static final String[] TARGETS = {"", "", "/@id", "/@x:id", "/@*", "/x:*", "/text()"};
+  private static final QName[] RETURN_TYPES = {
+    XPathConstants.NODESET,
+    XPathConstants.NODE,
+    XPathConstants.STRING,
+    XPathConstants.NUMBER,
+    XPathConstants.BOOLEAN
+  };
+
+  private static String randomXml(Random random) {
+    StringBuilder sb = new StringBuilder("<a xmlns:x='urn:x'>");
+    randomContent(random, 1, sb);
+    return sb.append("</a>").toString();
+  }
+
+  private static void randomContent(Random random, int depth, StringBuilder sb) {
+    int children = random.nextInt(7);
+    for (int i = 0; i < children; i++) {
+      switch (random.nextInt(depth < 4 ? 10 : 4)) {
+        case 0:
+          sb.append(random.nextBoolean() ? " " : random.nextInt(3));
+          break;
+        case 1:
+          sb.append("<![CDATA[").append(random.nextInt(3)).append("]]>");
+          break;
+        case 2:
+          sb.append(random.nextBoolean() ? "<!--c-->" : "<?pi x?>");
+          break;
+        case 3:
+          sb.append("&amp;");
+          break;
+        default:
+          String name = NAMES[random.nextInt(NAMES.length)];
+          int form = random.nextInt(4);
+          String qname = (form == 1) ? "x:" + name : name;
+          sb.append('<').append(qname);
+          if (form == 2) sb.append(" xmlns='urn:y'");
+          if (form == 3) sb.append(" xmlns=''");
+          if (random.nextBoolean()) sb.append(" id='").append(random.nextInt(3)).append("'");
+          if (random.nextInt(4) == 0) sb.append(" x:id='1'");
+          if (random.nextInt(4) == 0) sb.append(" z='").append(random.nextInt(3)).append("'");
+          sb.append('>');
+          randomContent(random, depth + 1, sb);
+          sb.append("</").append(qname).append('>');
+      }
+    }
+  }
+
+  private static String randomXpath(Random random) {
+    StringBuilder sb = new StringBuilder();
+    int steps = 1 + random.nextInt(3);
+    for (int i = 0; i < steps; i++) {
+      sb.append((i == 0 && random.nextInt(3) == 0) ? "//" : "/");
+      sb.append(NAME_TESTS[random.nextInt(NAME_TESTS.length)]);
+      for (int n = random.nextInt(4) / 2; n > 0; n--) {
+        sb.append(PREDICATES[random.nextInt(PREDICATES.length)]);
+      }
+    }
+    return sb.append(TARGETS[random.nextInt(TARGETS.length)]).toString();
+  }
+
+  private static void assertSameResult(Object actual, Object expected, String message) {
+    if (expected instanceof NodeList) {
+      NodeList expectedNodes = (NodeList) expected;
+      NodeList actualNodes = (NodeList) actual;
+      Assert.assertEquals(actualNodes.getLength(), expectedNodes.getLength(), message);
+      for (int i = 0; i < expectedNodes.getLength(); i++) {
+        assertSameResult(actualNodes.item(i), expectedNodes.item(i), message + " item " + i);
+      }
+    } else if (expected instanceof Node) {
+      Assert.assertTrue(((Node) expected).isSameNode((Node) actual), message);
+    } else {
+      Assert.assertEquals(actual, expected, message);
+    }
+  }
+
+  @Test
+  public void test_DirectPath_SameAsInterpreter() throws Exception {
+    Map<String, String> namespaces = new HashMap<String, String>();
+    namespaces.put("x", "urn:x");
+    namespaces.put("y", "urn:y");
+    XPathExpressionCache cache = new XPathExpressionCache();
+    XPath xPath = XPathFactory.newInstance().newXPath();
+    xPath.setNamespaceContext(new XPathExpressionCache.MapNamespaceContext(namespaces));
+    Assert.assertTrue(cache.get("/a/x:b[2]/@id", namespaces) instanceof DomPath);
+    Assert.assertTrue(cache.get("//x:b[2]/text()", namespaces) instanceof DomPath);
+    Assert.assertFalse(cache.get("/a//b", namespaces) instanceof DomPath);
+    Assert.assertFalse(cache.get("//*", namespaces) instanceof DomPath);
+
+    Random random = new Random(20260118L);
+    for (int d = 0; d < 200; d++) {
+      String xml = randomXml(random);
+      Document[] documents = {
+        XmlUtils.parseXml(xml),
+        XmlUtils.parseXml(
+            new InputSource(new StringReader(xml)),
+            ParseOptions.DEFAULT.withDeferNodeExpansion(false)),
+        XmlUtils.parseCompact(new InputSource(new StringReader(xml))).newView(),
+        XmlUtils.parseXml(xml)
+      };
+      // the last one is left without an index
+      for (int i = 0; i < documents.length - 1; i++) {
+        ElementIndex.enable(documents[i]);
+      }
+      for (int n = 0; n < 10; n++) {
+        String xpath = randomXpath(random);
+        XPathExpression direct = cache.get(xpath, namespaces);
+        XPathExpression interpreted = xPath.compile(xpath);
+        for (Document document : documents) {
+          for (QName returnType : RETURN_TYPES) {
+            assertSameResult(
+                direct.evaluate(document, returnType),
+                interpreted.evaluate(document, returnType),
+                xpath + " " + returnType + " " + xml);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void test_ElementIndex() throws Exception {
+    Document document =
+        XmlUtils.parseXml("<a xmlns:x='urn:x'><b><x:b/><b>1</b></b><c><b/></c></a>");
+    Assert.assertNull(ElementIndex.of(document));
+    ElementIndex.enable(document);
+    ElementIndex index = ElementIndex.of(document);
+    List<Node> bs = index.get(null, "b");
+    Assert.assertEquals(bs.size(), 3);
+    Assert.assertEquals(bs.get(1).getTextContent(), "1");
+    Assert.assertEquals(index.get("urn:x", "b").size(), 1);
+    Assert.assertTrue(index.get(null, "d").isEmpty());
+    XPathExpression expr = new XPathExpressionCache().get("//b/b", new HashMap<String, String>());
+    Assert.assertEquals(expr.evaluate(document, XPathConstants.STRING), "1");
+    ElementIndex.disable(document);
+    Assert.assertNull(ElementIndex.of(document));
+  }
+
+  @Test
+  public void test_FailedCompileIsCached() throws Exception {
+    XPathExpressionCache cache = new XPathExpressionCache(2);
+    Map<String, String> namespaces = new HashMap<String, String>();
+    XPathExpressionException first = null;
+    try {
+      cache.get("/a/", namespaces);
+      Assert.fail("expected an exception");
+    } catch (XPathExpressionException exc1) {
+      first = exc1;
+    }
+    try {
+      cache.get("/a/", new HashMap<String, String>(namespaces));
+      Assert.fail("expected an exception");
+    } catch (XPathExpressionException exc1) {
+      Assert.assertSame(exc1, first);
+    }
+    Assert.assertEquals(cache.getStats().getMisses(), 1);
+    Assert.assertEquals(cache.getStats().getRejections(), 1);
+
+    // with other namespaces, it is compiled again
+    namespaces.put("p", "urn:p");
+    try {
+      cache.get("/a/", namespaces);
+      Assert.fail("expected an exception");
+    } catch (XPathExpressionException exc1) {
+      Assert.assertNotSame(exc1, first);
+    }
+    Assert.assertEquals(cache.getStats().getMisses(), 2);
+
+    // the failures are bounded, like the expressions
+    for (String xpath : new String[] {"/b/", "/c/"}) {
+      try {
+        cache.get(xpath, namespaces);
+        Assert.fail("expected an exception");
+      } catch (XPathExpressionException exc1) {
+        // expected
+      }
+    }
+    try {
+      cache.get("/a/", new HashMap<String, String>());
+      Assert.fail("expected an exception");
+    } catch (XPathExpressionException exc1) {
+      Assert.assertNotSame(exc1, first);
+    }
+    Assert.assertEquals(cache.getStats().getMisses(), 5);
+    Assert.assertEquals(cache.getStats().getRejections(), 1);
+  }
+
+  @Test
+  public void test_DirectPath_BuiltDocument() throws Exception {
+    Document document = XmlUtils.parseXml("<a><b/></a>");
+    Element b = (Element) document.getDocumentElement().getFirstChild();
+    // adjacent and empty text nodes, as only a DOM built in code has them
+    b.appendChild(document.createTextNode("1"));
+    b.appendChild(document.createCDATASection("2"));
+    b.appendChild(document.createTextNode(""));
+    b.appendChild(document.createComment("c"));
+    b.appendChild(document.createTextNode(""));
+    b.appendChild(document.createElementNS(null, "c"));
+    b.appendChild(document.createTextNode(" 3 "));
+    b.setAttributeNS("http://www.w3.org/2000/xmlns/", "xmlns:q", "urn:q");
+    b.setAttributeNS("urn:q", "q:id", "4");
+    Map<String, String> namespaces = new HashMap<String, String>();
+    namespaces.put("q", "urn:q");
+    XPathExpressionCache cache = new XPathExpressionCache();
+    XPath xPath = XPathFactory.newInstance().newXPath();
+    xPath.setNamespaceContext(new XPathExpressionCache.MapNamespaceContext(namespaces));
+    String[] xpaths = {"/a/b/text()", "/a/b/@*", "/a/b/@q:id", "/a/b/c", "/a/b", "/a/b[@q:id='4']"};
+    for (String xpath : xpaths) {
+      for (QName returnType : RETURN_TYPES) {
+        assertSameResult(
+            cache.get(xpath, namespaces).evaluate(document, returnType),
+            xPath.compile(xpath).evaluate(document, returnType),
+            xpath + " " + returnType);
+      }
+    }
+    // a parser that is not namespace aware leaves local names unset; the interpreter is used
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    Document plain =
+        factory.newDocumentBuilder().parse(new InputSource(new StringReader("<a><b>5</b></a>")));
+    Assert.assertEquals(cache.get("/a/b", namespaces).evaluate(plain), "5");
+  }
+}
@@ -0,0 +1,205 @@
+// Copyright 2026 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.google.apigee.util;
+
+import java.io.ByteArrayInputStream;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+public class TestXmlSerializer {
+  private static final String NL = System.getProperty("line.separator");
+
+  private static final String[] samples = {
+    "<a>t<b>x</b>u<c><d/></c></a>",
+    "<a>\n  <b>x</b>\n  <c>\n    <d/>\n  </c>\n</a>",
+    "<!--c0--><?pi x?><a x='1&amp;&lt;&gt;&quot;&apos;&#9;&#10;&#13;' xmlns='urn:d' xmlns:p='urn:p'"
+        + " p:y='2'><p:b>&amp;&lt;&gt;\"'&#13;</p:b><![CDATA[ a]]]]><![CDATA[>b ]]><!--c-->"
+        + "<?pi a?>b?><e xmlns=''/></a>",
+    "<a>\u00e9\u4e2d&#x80;&#x7f; &#x2028; &#x10000;<![CDATA[\u00e9\ud800\udc00]]></a>",
+    "<?xml version='1.0' encoding='ISO-8859-1'?><a b='\u00e9'>\u00e9<![CDATA[\u00e9]]></a>",
+    "<?xml version='1.1'?><a b='&#x85;'>&#x1;&#x85;&#x2028;</a>",
+    "<p:a xmlns:p='urn:p' xmlns:q='urn:q'><q:b q:x='1'><c xmlns='urn:c'><d/></c></q:b></p:a>",
+    "<a><b>x<?javax.xml.transform.disable-output-escaping?>&lt;y&gt;</b><c/></a>",
+  };
+
+  // The JDK 8 Transformer output for each sample, without and then with indentation: the
+  // document, then each of its elements in document order.
+  private static final String[][] transformed = {
+    {
+      "<a>t<b>x</b>u<c><d/></c></a>",
+      "<a>t<b>x</b>u<c><d/></c></a>",
+      "<b>x</b>",
+      "<c><d/></c>",
+      "<d/>",
+      "<a>t<b>x</b>u<c>\n<d/>\n</c>\n</a>\n",
+      "<a>t<b>x</b>u<c>\n<d/>\n</c>\n</a>\n",
+      "<b>x</b>\n",
+      "<c>\n<d/>\n</c>\n",
+      "<d/>\n",
+    },
+    {
+      "<a>\n  <b>x</b>\n  <c>\n    <d/>\n  </c>\n</a>",
+      "<a>\n  <b>x</b>\n  <c>\n    <d/>\n  </c>\n</a>",
+      "<b>x</b>",
+      "<c>\n    <d/>\n  </c>",
+      "<d/>",
+      "<a>\n  <b>x</b>\n  <c>\n    <d/>\n  </c>\n</a>\n",
+      "<a>\n  <b>x</b>\n  <c>\n    <d/>\n  </c>\n</a>\n",
+      "<b>x</b>\n",
+      "<c>\n    <d/>\n  </c>\n",
+      "<d/>\n",
+    },
+    {
+      "<!--c0--><?pi x?>"
+          + "<a xmlns=\"urn:d\" xmlns:p=\"urn:p\" p:y=\"2\""
+          + " x=\"1&amp;&lt;&gt;&quot;'&#9;&#10;&#13;\">"
+          + "<p:b>&amp;&lt;&gt;\"'&#13;</p:b><![CDATA[ a]]]]><![CDATA[>b ]]><!--c--><?pi a?>b?&gt;"
+          + "<e xmlns=\"\"/></a>",
+      "<a xmlns=\"urn:d\" xmlns:p=\"urn:p\" p:y=\"2\" x=\"1&amp;&lt;&gt;&quot;'&#9;&#10;&#13;\">"
+          + "<p:b>&amp;&lt;&gt;\"'&#13;</p:b><![CDATA[ a]]]]><![CDATA[>b ]]><!--c--><?pi a?>b?&gt;"
+          + "<e xmlns=\"\"/></a>",
+      "<p:b xmlns:p=\"urn:p\">&amp;&lt;&gt;\"'&#13;</p:b>",
+      "<e/>",
+      "<!--c0--><?pi x?>"
+          + "<a xmlns=\"urn:d\" xmlns:p=\"urn:p\" p:y=\"2\""
+          + " x=\"1&amp;&lt;&gt;&quot;'&#9;&#10;&#13;\">\n"
+          + "<p:b>&amp;&lt;&gt;\"'&#13;</p:b><![CDATA[ a]]]]><![CDATA[>b ]]><!--c--><?pi a?>b?&gt;"
+          + "<e xmlns=\"\"/>\n</a>\n",
+      "<a xmlns=\"urn:d\" xmlns:p=\"urn:p\" p:y=\"2\" x=\"1&amp;&lt;&gt;&quot;'&#9;&#10;&#13;\">\n"
+          + "<p:b>&amp;&lt;&gt;\"'&#13;</p:b><![CDATA[ a]]]]><![CDATA[>b ]]><!--c--><?pi a?>b?&gt;"
+          + "<e xmlns=\"\"/>\n</a>\n",
+      "<p:b xmlns:p=\"urn:p\">&amp;&lt;&gt;\"'&#13;</p:b>\n",
+      "<e/>\n",
+    },
+    {
+      "<a>\u00e9\u4e2d&#128;&#127; \u2028 &#65536;<![CDATA[\u00e9\ud800\udc00]]></a>",
+      "<a>\u00e9\u4e2d&#128;&#127; \u2028 &#65536;<![CDATA[\u00e9\ud800\udc00]]></a>",
+      "<a>\u00e9\u4e2d&#128;&#127; \u2028 &#65536;<![CDATA[\u00e9\ud800\udc00]]></a>\n",
+      "<a>\u00e9\u4e2d&#128;&#127; \u2028 &#65536;<![CDATA[\u00e9\ud800\udc00]]></a>\n",
+    },
+    {
+      "<a b=\"\u00e9\">\u00e9<![CDATA[\u00e9]]></a>",
+      "<a b=\"\u00e9\">\u00e9<![CDATA[\u00e9]]></a>",
+      "<a b=\"\u00e9\">\u00e9<![CDATA[\u00e9]]></a>\n",
+      "<a b=\"\u00e9\">\u00e9<![CDATA[\u00e9]]></a>\n",
+    },
+    {
+      "<a b=\"\u0085\">&#1;&#133;&#8232;</a>",
+      "<a b=\"\u0085\">&#1;&#133;\u2028</a>",
+      "<a b=\"\u0085\">&#1;&#133;&#8232;</a>\n",
+      "<a b=\"\u0085\">&#1;&#133;\u2028</a>\n",
+    },
+    {
+      "<p:a xmlns:p=\"urn:p\" xmlns:q=\"urn:q\"><q:b q:x=\"1\"><c xmlns=\"urn:c\"><d/></c></q:b>"
+          + "</p:a>",
+      "<p:a xmlns:p=\"urn:p\" xmlns:q=\"urn:q\"><q:b q:x=\"1\"><c xmlns=\"urn:c\"><d/></c></q:b>"
+          + "</p:a>",
+      "<q:b xmlns:q=\"urn:q\" q:x=\"1\"><c xmlns=\"urn:c\"><d/></c></q:b>",
+      "<c xmlns=\"urn:c\"><d/></c>",
+      "<d xmlns=\"urn:c\"/>",
+      "<p:a xmlns:p=\"urn:p\" xmlns:q=\"urn:q\">\n<q:b q:x=\"1\">\n<c xmlns=\"urn:c\">\n<d/>\n"
+          + "</c>\n</q:b>\n</p:a>\n",
+      "<p:a xmlns:p=\"urn:p\" xmlns:q=\"urn:q\">\n<q:b q:x=\"1\">\n<c xmlns=\"urn:c\">\n<d/>\n"
+          + "</c>\n</q:b>\n</p:a>\n",
+      "<q:b xmlns:q=\"urn:q\" q:x=\"1\">\n<c xmlns=\"urn:c\">\n<d/>\n</c>\n</q:b>\n",
+      "<c xmlns=\"urn:c\">\n<d/>\n</c>\n",
+      "<d xmlns=\"urn:c\"/>\n",
+    },
+    {
+      "<a><b>x<y></b><c/></a>",
+      "<a><b>x<y></b><c/></a>",
+      "<b>x<y></b>",
+      "<c/>",
+      "<a>\n<b>x<y></b>\n<c/>\n</a>\n",
+      "<a>\n<b>x<y></b>\n<c/>\n</a>\n",
+      "<b>x<y></b>\n",
+      "<c/>\n",
+    },
+  };
+
+  private static Document parse(String xml) throws Exception {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    String encoding = xml.contains("ISO-8859-1") ? "ISO-8859-1" : "UTF-8";
+    return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes(encoding)));
+  }
+
+  @Test
+  public void test_Indent() throws Exception {
+    Document doc = parse(samples[0]);
+    Assert.assertEquals(XmlSerializer.toString(doc, false), samples[0]);
+    Assert.assertEquals(
+        XmlSerializer.toString(doc, true),
+        "<a>t<b>x</b>u<c>" + NL + "<d/>" + NL + "</c>" + NL + "</a>" + NL);
+    // whitespace that is already there is kept as it is
+    Assert.assertEquals(XmlSerializer.toString(parse(samples[1]), true), samples[1] + NL);
+  }
+
+  @Test
+  public void test_Escaping() throws Exception {
+    Document doc = parse(samples[2]);
+    doc.getDocumentElement().appendChild(doc.createComment("c--d-"));
+    Assert.assertEquals(
+        XmlSerializer.toString(doc, false),
+        "<!--c0--><?pi x?><a xmlns=\"urn:d\" xmlns:p=\"urn:p\" p:y=\"2\""
+            + " x=\"1&amp;&lt;&gt;&quot;'&#9;&#10;&#13;\"><p:b>&amp;&lt;&gt;\"'&#13;</p:b>"
+            + "<![CDATA[ a]]]]><![CDATA[>b ]]><!--c--><?pi a?>b?&gt;<e xmlns=\"\"/>"
+            + "<!--c- -d- --></a>");
+    Assert.assertEquals(
+        XmlSerializer.toString(parse(samples[3]).getDocumentElement(), false),
+        "<a>\u00e9\u4e2d&#128;&#127; \u2028 &#65536;<![CDATA[\u00e9\ud800\udc00]]></a>");
+    Assert.assertEquals(
+        XmlSerializer.toString(
+            parse("<?xml version='1.0' encoding='US-ASCII'?><a b='&#xe9;'>&#xe9;</a>"), false),
+        "<a b=\"&#233;\">&#233;</a>");
+  }
+
+  @Test
+  public void test_Namespaces() throws Exception {
+    Document doc = parse(samples[6]);
+    Node b = doc.getDocumentElement().getFirstChild();
+    Assert.assertEquals(
+        XmlSerializer.toString(b, false),
+        "<q:b xmlns:q=\"urn:q\" q:x=\"1\"><c xmlns=\"urn:c\"><d/></c></q:b>");
+    Node d = b.getFirstChild().getFirstChild();
+    Assert.assertEquals(XmlSerializer.toString(d, false), "<d xmlns=\"urn:c\"/>");
+  }
+
+  @Test
+  public void test_SameAsTransformer() throws Exception {
+    for (int s = 0; s < samples.length; s++) {
+      Document doc = parse(samples[s]);
+      NodeList elements = doc.getElementsByTagNameNS("*", "*");
+      String[] expected = transformed[s];
+      int next = 0;
+      for (boolean indent : new boolean[] {false, true}) {
+        Assert.assertEquals(
+            XmlSerializer.toString(doc, indent), expected[next++].replace("\n", NL), samples[s]);
+        for (int i = 0; i < elements.getLength(); i++) {
+          Assert.assertEquals(
+              XmlSerializer.toString(elements.item(i), indent),
+              expected[next++].replace("\n", NL),
+              samples[s]);
+        }
+      }
+      Assert.assertEquals(next, expected.length, samples[s]);
+    }
+  }
+}